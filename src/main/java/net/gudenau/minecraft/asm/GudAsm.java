@@ -1,11 +1,17 @@
 package net.gudenau.minecraft.asm;
 
 import net.fabricmc.api.ModInitializer;
+import net.gudenau.minecraft.asm.impl.CacheBaker;
 import org.apache.logging.log4j.LogManager;
 
 public class GudAsm implements ModInitializer{
     @Override
     public void onInitialize(){
         LogManager.getLogger("gud_asm").fatal("Welcome to the wacky world of gudASM, things might break in weird and wonderful ways!");
+        
+        // Everything is loaded and Mixin is ready, the game itself doesn't need to start
+        if(CacheBaker.isBaking()){
+            CacheBaker.bake();
+        }
     }
 }
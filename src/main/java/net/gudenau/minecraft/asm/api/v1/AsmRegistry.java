@@ -24,6 +24,15 @@ public interface AsmRegistry{
      * */
     void registerEarlyTransformer(Transformer transformer);
     
+    /**
+     * Registers a visitor transformer for transforming classes before mixins.
+     *
+     * This one should not be used unless it is 100% required.
+     *
+     * @param transformer The transformer to register
+     * */
+    void registerEarlyTransformer(VisitorTransformer transformer);
+    
     /**
      * Registers a class transformer for transforming classes after mixins.
      *
@@ -33,6 +42,15 @@ public interface AsmRegistry{
      * */
     void registerTransformer(Transformer transformer);
     
+    /**
+     * Registers a visitor transformer for transforming classes after mixins.
+     *
+     * This is the most compatible one.
+     *
+     * @param transformer The transformer to register
+     * */
+    void registerTransformer(VisitorTransformer transformer);
+    
     /**
      * Registers a class cache.
      *
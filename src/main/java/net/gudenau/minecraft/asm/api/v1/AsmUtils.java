@@ -591,6 +591,101 @@ public final class AsmUtils{
         return AsmUtilsImpl.findPreviousMethodCall(node, flags, opcode, method, limit);
     }
     
+    /**
+     * Searches for method calls in a method with a precompiled matcher.
+     *
+     * @param method The method to search
+     * @param matcher The matcher to search with
+     *
+     * @return A list of all matching method calls
+     * */
+    @NotNull
+    public static List<@NotNull MethodInsnNode> findMethodCalls(@NotNull MethodNode method, @NotNull MethodMatcher matcher){
+        return findMethodCalls(method.instructions, matcher);
+    }
+    
+    /**
+     * Searches for method calls in an instruction list with a precompiled matcher.
+     *
+     * @param instructions The instructions to search
+     * @param matcher The matcher to search with
+     *
+     * @return A list of all matching method calls
+     * */
+    @NotNull
+    public static List<@NotNull MethodInsnNode> findMethodCalls(@NotNull InsnList instructions, @NotNull MethodMatcher matcher){
+        return AsmUtilsImpl.findMatchingNodes(instructions, matcher);
+    }
+    
+    /**
+     * Searches for method calls in an instruction list with a precompiled matcher.
+     *
+     * Lets hot code reuse one collection for every method instead of getting a new list every time.
+     *
+     * @param instructions The instructions to search
+     * @param matcher The matcher to search with
+     * @param result The collection to add the matching method calls to
+     *
+     * @return The amount of matching method calls
+     * */
+    public static int findMethodCalls(@NotNull InsnList instructions, @NotNull MethodMatcher matcher, @NotNull Collection<? super MethodInsnNode> result){
+        return AsmUtilsImpl.findMatchingNodes(instructions, matcher, result);
+    }
+    
+    /**
+     * Searches for the next method call after this node with a precompiled matcher.
+     *
+     * @param node The starting point of the search, exclusive
+     * @param matcher The matcher to search with
+     *
+     * @return The matching node
+     * */
+    @NotNull
+    public static Optional<MethodInsnNode> findNextMethodCall(@NotNull AbstractInsnNode node, @NotNull MethodMatcher matcher){
+        return findNextMethodCall(node, matcher, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Searches for the next method call after this node with a precompiled matcher.
+     *
+     * @param node The starting point of the search, exclusive
+     * @param matcher The matcher to search with
+     * @param limit The max amount of nodes to check
+     *
+     * @return The matching node
+     * */
+    @NotNull
+    public static Optional<MethodInsnNode> findNextMethodCall(@NotNull AbstractInsnNode node, @NotNull MethodMatcher matcher, int limit){
+        return AsmUtilsImpl.findNextNode(node, matcher, limit);
+    }
+    
+    /**
+     * Searches for the previous method call before this node with a precompiled matcher.
+     *
+     * @param node The starting point of the search, exclusive
+     * @param matcher The matcher to search with
+     *
+     * @return The matching node
+     * */
+    @NotNull
+    public static Optional<MethodInsnNode> findPreviousMethodCall(@NotNull AbstractInsnNode node, @NotNull MethodMatcher matcher){
+        return findPreviousMethodCall(node, matcher, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Searches for the previous method call before this node with a precompiled matcher.
+     *
+     * @param node The starting point of the search, exclusive
+     * @param matcher The matcher to search with
+     * @param limit The max amount of nodes to check
+     *
+     * @return The matching node
+     * */
+    @NotNull
+    public static Optional<MethodInsnNode> findPreviousMethodCall(@NotNull AbstractInsnNode node, @NotNull MethodMatcher matcher, int limit){
+        return AsmUtilsImpl.findPreviousNode(node, matcher, limit);
+    }
+    
     /**
      * Finds up to count nodes after the provided node.
      *
@@ -798,7 +893,184 @@ public final class AsmUtils{
     public static Optional<FieldInsnNode> findPreviousFieldNode(@NotNull AbstractInsnNode node, int flags, int opcode, @NotNull FieldType field, int limit){
         return AsmUtilsImpl.findPreviousFieldNode(node, flags, opcode, field, limit);
     }
+    
+    /**
+     * Searches for field instructions in a method with a precompiled matcher.
+     *
+     * @param method The method to search
+     * @param matcher The matcher to search with
+     *
+     * @return A list of all matching field instructions
+     * */
+    @NotNull
+    public static List<@NotNull FieldInsnNode> findFieldNodes(@NotNull MethodNode method, @NotNull FieldMatcher matcher){
+        return findFieldNodes(method.instructions, matcher);
+    }
+    
+    /**
+     * Searches for field instructions in an instruction list with a precompiled matcher.
+     *
+     * @param instructions The instructions to search
+     * @param matcher The matcher to search with
+     *
+     * @return A list of all matching field instructions
+     * */
+    @NotNull
+    public static List<@NotNull FieldInsnNode> findFieldNodes(@NotNull InsnList instructions, @NotNull FieldMatcher matcher){
+        return AsmUtilsImpl.findMatchingNodes(instructions, matcher);
+    }
+    
+    /**
+     * Searches for field instructions in an instruction list with a precompiled matcher.
+     *
+     * Lets hot code reuse one collection for every method instead of getting a new list every time.
+     *
+     * @param instructions The instructions to search
+     * @param matcher The matcher to search with
+     * @param result The collection to add the matching field instructions to
+     *
+     * @return The amount of matching field instructions
+     * */
+    public static int findFieldNodes(@NotNull InsnList instructions, @NotNull FieldMatcher matcher, @NotNull Collection<? super FieldInsnNode> result){
+        return AsmUtilsImpl.findMatchingNodes(instructions, matcher, result);
+    }
+    
+    /**
+     * Searches for the next field instruction after this node with a precompiled matcher.
+     *
+     * @param node The starting point of the search, exclusive
+     * @param matcher The matcher to search with
+     *
+     * @return The matching node
+     * */
+    @NotNull
+    public static Optional<FieldInsnNode> findNextFieldNode(@NotNull AbstractInsnNode node, @NotNull FieldMatcher matcher){
+        return findNextFieldNode(node, matcher, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Searches for the next field instruction after this node with a precompiled matcher.
+     *
+     * @param node The starting point of the search, exclusive
+     * @param matcher The matcher to search with
+     * @param limit The max amount of nodes to check
+     *
+     * @return The matching node
+     * */
+    @NotNull
+    public static Optional<FieldInsnNode> findNextFieldNode(@NotNull AbstractInsnNode node, @NotNull FieldMatcher matcher, int limit){
+        return AsmUtilsImpl.findNextNode(node, matcher, limit);
+    }
+    
+    /**
+     * Searches for the previous field instruction before this node with a precompiled matcher.
+     *
+     * @param node The starting point of the search, exclusive
+     * @param matcher The matcher to search with
+     *
+     * @return The matching node
+     * */
+    @NotNull
+    public static Optional<FieldInsnNode> findPreviousFieldNode(@NotNull AbstractInsnNode node, @NotNull FieldMatcher matcher){
+        return findPreviousFieldNode(node, matcher, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Searches for the previous field instruction before this node with a precompiled matcher.
+     *
+     * @param node The starting point of the search, exclusive
+     * @param matcher The matcher to search with
+     * @param limit The max amount of nodes to check
+     *
+     * @return The matching node
+     * */
+    @NotNull
+    public static Optional<FieldInsnNode> findPreviousFieldNode(@NotNull AbstractInsnNode node, @NotNull FieldMatcher matcher, int limit){
+        return AsmUtilsImpl.findPreviousNode(node, matcher, limit);
+    }
 
+    /**
+     * Finds the first match of a pattern in a method.
+     *
+     * @param method The method to search
+     * @param pattern The compiled pattern
+     *
+     * @return The first match
+     * */
+    @NotNull
+    public static Optional<InstructionPattern.Match> findPattern(@NotNull MethodNode method, @NotNull InstructionPattern.Compiled pattern){
+        return pattern.find(method.instructions);
+    }
+    
+    /**
+     * Finds the first match of a pattern that starts at or after a node.
+     *
+     * @param start The start of the search, inclusive
+     * @param pattern The compiled pattern
+     *
+     * @return The first match
+     * */
+    @NotNull
+    public static Optional<InstructionPattern.Match> findPattern(@NotNull AbstractInsnNode start, @NotNull InstructionPattern.Compiled pattern){
+        return pattern.find(start);
+    }
+    
+    /**
+     * Finds every match of a pattern in a method, the matches don't overlap.
+     *
+     * @param method The method to search
+     * @param pattern The compiled pattern
+     *
+     * @return All matches, in order
+     * */
+    @NotNull
+    public static List<InstructionPattern.@NotNull Match> findPatterns(@NotNull MethodNode method, @NotNull InstructionPattern.Compiled pattern){
+        return pattern.findAll(method.instructions);
+    }
+    
+    /**
+     * Finds every match of a pattern in an instruction list, the matches don't overlap.
+     *
+     * @param instructions The instructions to search
+     * @param pattern The compiled pattern
+     *
+     * @return All matches, in order
+     * */
+    @NotNull
+    public static List<InstructionPattern.@NotNull Match> findPatterns(@NotNull InsnList instructions, @NotNull InstructionPattern.Compiled pattern){
+        return pattern.findAll(instructions);
+    }
+    
+    /**
+     * Builds the control flow graph of a method.
+     *
+     * Transformers should use {@link #getControlFlowGraph(Transformer.Flags, MethodNode)} instead, this builds a new
+     * graph every time.
+     *
+     * @param method The method, it must have code
+     *
+     * @return The graph
+     * */
+    @NotNull
+    public static ControlFlowGraph getControlFlowGraph(@NotNull MethodNode method){
+        return ControlFlowGraph.build(method);
+    }
+    
+    /**
+     * Gets the control flow graph of a method of the class that is being transformed.
+     *
+     * The graph is shared by every transformer of the class until the method is marked dirty.
+     *
+     * @param flags The flags passed to the transformer
+     * @param method The method, it must have code
+     *
+     * @return The graph
+     * */
+    @NotNull
+    public static ControlFlowGraph getControlFlowGraph(@NotNull Transformer.Flags flags, @NotNull MethodNode method){
+        return flags.getIndex().getControlFlowGraph(method);
+    }
+    
     // --- Dynamic instruction stuff ---
     
     /**
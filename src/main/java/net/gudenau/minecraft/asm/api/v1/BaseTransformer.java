@@ -0,0 +1,50 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import java.util.Optional;
+
+/**
+ * What every kind of transformer has in common, implement {@link Transformer Transformer} or
+ * {@link VisitorTransformer VisitorTransformer} instead of this.
+ * */
+public interface BaseTransformer{
+    /**
+     * The name of this transformer.
+     *
+     * @return The identifier of this transformer
+     * */
+    Identifier getName();
+    
+    /**
+     * The version of this transformer.
+     *
+     * Bump this whenever the transformer starts producing different output, cached classes are thrown away when it
+     * changes.
+     *
+     * @return The version of this transformer
+     * */
+    default int getVersion(){
+        return 0;
+    }
+    
+    /**
+     * A quick check to see if this transformer might handle a class.
+     *
+     * @param name The name of the class
+     * @param transformedName The transformed name of the class
+     *
+     * @return true if the class might get transformed
+     * */
+    boolean handlesClass(String name, String transformedName);
+    
+    /**
+     * The classes this transformer targets.
+     *
+     * When present the transformer is found through an index that is built when the registry is frozen and
+     * {@link #handlesClass(String, String)} is never called, this is much cheaper than checking every class.
+     *
+     * @return The targets, or empty to use {@link #handlesClass(String, String)}
+     * */
+    default Optional<TransformerTargets> getTargets(){
+        return Optional.empty();
+    }
+}
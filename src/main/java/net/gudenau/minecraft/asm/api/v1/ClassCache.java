@@ -17,6 +17,21 @@ public interface ClassCache{
      * */
     void load() throws IOException;
     
+    /**
+     * Load the contents of the cache for an environment.
+     *
+     * The fingerprint changes whenever anything that could change a transformed class does, like the installed mods,
+     * the registered transformers or the configuration. Entries created under a different fingerprint are stale and
+     * must not be returned.
+     *
+     * The default implementation ignores the fingerprint.
+     *
+     * @param fingerprint The fingerprint of the current environment
+     * */
+    default void load(String fingerprint) throws IOException{
+        load();
+    }
+    
     /**
      * Save the contents of the cache.
      * */
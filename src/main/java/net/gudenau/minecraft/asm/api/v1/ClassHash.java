@@ -0,0 +1,92 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import java.nio.charset.StandardCharsets;
+import net.gudenau.minecraft.asm.util.Murmur3;
+
+/**
+ * A 128 bit hash of an original class, the key of {@link HashedClassCache HashedClassCache} entries.
+ *
+ * The hash is computed once per class load by gudASM and seeded with the cache fingerprint, so hashes of the same class
+ * never match across fingerprints.
+ * */
+public final class ClassHash{
+    private final long high;
+    private final long low;
+    
+    /**
+     * Creates a hash from its two halves, for caches that read them back from storage.
+     *
+     * @param high The high 64 bits
+     * @param low The low 64 bits
+     * */
+    public ClassHash(long high, long low){
+        this.high = high;
+        this.low = low;
+    }
+    
+    /**
+     * Hashes a class.
+     *
+     * @param original The original class
+     * @param seed The seed, see {@link #seed(String) seed}
+     *
+     * @return The hash
+     * */
+    public static ClassHash of(byte[] original, long seed){
+        long[] hash = Murmur3.hash128(original, seed);
+        return new ClassHash(hash[0], hash[1]);
+    }
+    
+    /**
+     * Gets the seed gudASM hashes classes with for a fingerprint.
+     *
+     * @param fingerprint The fingerprint passed to {@link ClassCache#load(String) load}
+     *
+     * @return The seed
+     * */
+    public static long seed(String fingerprint){
+        long[] hash = Murmur3.hash128(fingerprint.getBytes(StandardCharsets.UTF_8), 0);
+        return hash[0] ^ hash[1];
+    }
+    
+    /**
+     * Gets the high 64 bits.
+     *
+     * @return The high bits
+     * */
+    public long getHigh(){
+        return high;
+    }
+    
+    /**
+     * Gets the low 64 bits, these are well mixed enough to index a table with directly.
+     *
+     * @return The low bits
+     * */
+    public long getLow(){
+        return low;
+    }
+    
+    @Override
+    public boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(o == null || getClass() != o.getClass()){
+            return false;
+        }
+        ClassHash that = (ClassHash)o;
+        return high == that.high &&
+               low == that.low;
+    }
+    
+    @Override
+    public int hashCode(){
+        return (int)(low ^ (low >>> 32));
+    }
+    
+    @Override
+    public String toString(){
+        return String.format("%016x%016x", high, low);
+    }
+}
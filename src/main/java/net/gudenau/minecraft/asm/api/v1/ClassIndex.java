@@ -0,0 +1,392 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Lookup tables for the members and annotations of a class.
+ *
+ * The tree transformers of a class share one index through {@link Transformer.Flags#getIndex() Flags.getIndex}, so a
+ * class is only scanned once no matter how many transformers look at it. Every table is built the first time it is
+ * used.
+ *
+ * The index throws tables away on its own when a transformer changes the class, when it calls
+ * {@link Transformer.Flags#markModified() markModified} or {@link Transformer.Flags#markDirty(String, String) markDirty}
+ * and when it returns true. Control flow graphs are kept for every method that was not marked dirty when a transformer
+ * that marks its methods returns. Tables are also checked against the size and identity of the lists they were built from.
+ * Transformers that rename members or change annotations in place and then query the index again before any of that
+ * happens have to call {@link #invalidate()} themselves.
+ *
+ * An index is not thread safe, just like the tree it indexes.
+ * */
+public final class ClassIndex{
+    @NotNull private final ClassNode owner;
+    private int version = 0;
+    
+    @NotNull private final Members<MethodNode> methods = new Members<>((method)->method.name, (method)->method.desc);
+    @NotNull private final Members<FieldNode> fields = new Members<>((field)->field.name, (field)->field.desc);
+    @NotNull private final Map<Object, Annotations> annotations = new IdentityHashMap<>();
+    @NotNull private final Map<MethodNode, ControlFlowGraph> graphs = new IdentityHashMap<>();
+    
+    /**
+     * Creates an index for a class, prefer the shared one from {@link Transformer.Flags#getIndex() Flags.getIndex}.
+     *
+     * @param owner The class to index
+     * */
+    public ClassIndex(@NotNull ClassNode owner){
+        this.owner = owner;
+    }
+    
+    /**
+     * Gets the class this index is for.
+     *
+     * @return The class
+     * */
+    @NotNull
+    public ClassNode getClassNode(){
+        return owner;
+    }
+    
+    /**
+     * Throws all tables and control flow graphs away, they are rebuilt the next time they are used.
+     * */
+    public void invalidate(){
+        version++;
+        graphs.clear();
+    }
+    
+    /**
+     * Throws the tables and the control flow graph of one method away, graphs of the other methods are kept.
+     *
+     * @param name The name of the method
+     * @param desc The descriptor of the method
+     * */
+    public void invalidate(@NotNull String name, @NotNull String desc){
+        version++;
+        graphs.keySet().removeIf((method)->name.equals(method.name) && desc.equals(method.desc));
+    }
+    
+    /**
+     * Gets the control flow graph of a method of the class, building it if needed.
+     *
+     * A graph is kept until its method is marked dirty or the index is invalidated, a graph whose method has a
+     * different amount of instructions or try blocks by then is rebuilt as well.
+     *
+     * @param method The method, it must have code
+     *
+     * @return The graph
+     * */
+    @NotNull
+    public ControlFlowGraph getControlFlowGraph(@NotNull MethodNode method){
+        ControlFlowGraph graph = graphs.get(method);
+        if(graph == null || !graph.isCurrent()){
+            graph = ControlFlowGraph.build(method);
+            graphs.put(method, graph);
+        }
+        return graph;
+    }
+    
+    /**
+     * Finds a method of the class.
+     *
+     * @param name The name of the method
+     * @param desc The descriptor of the method
+     *
+     * @return The method
+     * */
+    @NotNull
+    public Optional<MethodNode> findMethod(@NotNull String name, @NotNull String desc){
+        return Optional.ofNullable(methods.find(owner.methods, version, name, desc));
+    }
+    
+    /**
+     * Finds every method of the class with a name.
+     *
+     * @param name The name of the methods
+     *
+     * @return The methods in class order, this list must not be modified
+     * */
+    @NotNull
+    public List<@NotNull MethodNode> findMethods(@NotNull String name){
+        return methods.findAll(owner.methods, version, name);
+    }
+    
+    /**
+     * Finds a field of the class.
+     *
+     * @param name The name of the field
+     * @param desc The descriptor of the field
+     *
+     * @return The field
+     * */
+    @NotNull
+    public Optional<FieldNode> findField(@NotNull String name, @NotNull String desc){
+        return Optional.ofNullable(fields.find(owner.fields, version, name, desc));
+    }
+    
+    /**
+     * Checks if the class has an annotation.
+     *
+     * @param type The annotation type
+     *
+     * @return True if the annotation is present
+     * */
+    public boolean hasAnnotation(@NotNull Type type){
+        return !getAnnotations(type).isEmpty();
+    }
+    
+    /**
+     * Gets the first annotation of a type on the class.
+     *
+     * @param type The annotation type
+     *
+     * @return The annotation
+     * */
+    @NotNull
+    public Optional<AnnotationNode> getAnnotation(@NotNull Type type){
+        return first(getAnnotations(type));
+    }
+    
+    /**
+     * Gets the annotations of a type on the class, visible ones first.
+     *
+     * @param type The annotation type
+     *
+     * @return The annotations, this list must not be modified
+     * */
+    @NotNull
+    public List<@NotNull AnnotationNode> getAnnotations(@NotNull Type type){
+        return annotations(owner, owner.visibleAnnotations, owner.invisibleAnnotations).get(type.getDescriptor());
+    }
+    
+    /**
+     * Checks if a method of the class has an annotation.
+     *
+     * @param method The method
+     * @param type The annotation type
+     *
+     * @return True if the annotation is present
+     * */
+    public boolean hasAnnotation(@NotNull MethodNode method, @NotNull Type type){
+        return !getAnnotations(method, type).isEmpty();
+    }
+    
+    /**
+     * Gets the first annotation of a type on a method of the class.
+     *
+     * @param method The method
+     * @param type The annotation type
+     *
+     * @return The annotation
+     * */
+    @NotNull
+    public Optional<AnnotationNode> getAnnotation(@NotNull MethodNode method, @NotNull Type type){
+        return first(getAnnotations(method, type));
+    }
+    
+    /**
+     * Gets the annotations of a type on a method of the class, visible ones first.
+     *
+     * @param method The method
+     * @param type The annotation type
+     *
+     * @return The annotations, this list must not be modified
+     * */
+    @NotNull
+    public List<@NotNull AnnotationNode> getAnnotations(@NotNull MethodNode method, @NotNull Type type){
+        return annotations(method, method.visibleAnnotations, method.invisibleAnnotations).get(type.getDescriptor());
+    }
+    
+    /**
+     * Checks if a field of the class has an annotation.
+     *
+     * @param field The field
+     * @param type The annotation type
+     *
+     * @return True if the annotation is present
+     * */
+    public boolean hasAnnotation(@NotNull FieldNode field, @NotNull Type type){
+        return !getAnnotations(field, type).isEmpty();
+    }
+    
+    /**
+     * Gets the first annotation of a type on a field of the class.
+     *
+     * @param field The field
+     * @param type The annotation type
+     *
+     * @return The annotation
+     * */
+    @NotNull
+    public Optional<AnnotationNode> getAnnotation(@NotNull FieldNode field, @NotNull Type type){
+        return first(getAnnotations(field, type));
+    }
+    
+    /**
+     * Gets the annotations of a type on a field of the class, visible ones first.
+     *
+     * @param field The field
+     * @param type The annotation type
+     *
+     * @return The annotations, this list must not be modified
+     * */
+    @NotNull
+    public List<@NotNull AnnotationNode> getAnnotations(@NotNull FieldNode field, @NotNull Type type){
+        return annotations(field, field.visibleAnnotations, field.invisibleAnnotations).get(type.getDescriptor());
+    }
+    
+    @NotNull
+    private static Optional<AnnotationNode> first(@NotNull List<AnnotationNode> annotations){
+        return annotations.isEmpty() ? Optional.empty() : Optional.of(annotations.get(0));
+    }
+    
+    @NotNull
+    private Annotations annotations(@NotNull Object element, @Nullable List<AnnotationNode> visible, @Nullable List<AnnotationNode> invisible){
+        Annotations index = annotations.get(element);
+        if(index == null){
+            index = new Annotations();
+            annotations.put(element, index);
+        }
+        index.validate(version, visible, invisible);
+        return index;
+    }
+    
+    /**
+     * The members of one kind, keyed by a hash of name and descriptor and by name.
+     * */
+    private static final class Members<T>{
+        @NotNull private final Function<T, String> names;
+        @NotNull private final Function<T, String> descriptors;
+        
+        // What the tables were built from, compared on every lookup
+        @Nullable private List<T> source;
+        private int size = -1;
+        private int version = -1;
+        
+        @NotNull private final Int2ObjectOpenHashMap<Object[]> byNameAndDesc = new Int2ObjectOpenHashMap<>();
+        @NotNull private final Map<String, List<T>> byName = new HashMap<>();
+        
+        Members(@NotNull Function<T, String> names, @NotNull Function<T, String> descriptors){
+            this.names = names;
+            this.descriptors = descriptors;
+        }
+        
+        private static int key(@NotNull String name, @NotNull String desc){
+            return 31 * name.hashCode() + desc.hashCode();
+        }
+        
+        private void validate(@NotNull List<T> members, int version){
+            if(source == members && size == members.size() && this.version == version){
+                return;
+            }
+            source = members;
+            size = members.size();
+            this.version = version;
+            byNameAndDesc.clear();
+            byName.clear();
+            for(T member : members){
+                String name = names.apply(member);
+                int key = key(name, descriptors.apply(member));
+                Object[] bucket = byNameAndDesc.get(key);
+                if(bucket == null){
+                    bucket = new Object[]{member};
+                }else{
+                    Object[] grown = new Object[bucket.length + 1];
+                    System.arraycopy(bucket, 0, grown, 0, bucket.length);
+                    grown[bucket.length] = member;
+                    bucket = grown;
+                }
+                byNameAndDesc.put(key, bucket);
+                byName.computeIfAbsent(name, (unused)->new ArrayList<>(1)).add(member);
+            }
+            byName.replaceAll((name, found)->Collections.unmodifiableList(found));
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Nullable
+        T find(@NotNull List<T> members, int version, @NotNull String name, @NotNull String desc){
+            validate(members, version);
+            Object[] bucket = byNameAndDesc.get(key(name, desc));
+            if(bucket == null){
+                return null;
+            }
+            for(Object candidate : bucket){
+                T member = (T)candidate;
+                if(name.equals(names.apply(member)) && desc.equals(descriptors.apply(member))){
+                    return member;
+                }
+            }
+            return null;
+        }
+        
+        @NotNull
+        List<T> findAll(@NotNull List<T> members, int version, @NotNull String name){
+            validate(members, version);
+            return byName.getOrDefault(name, Collections.emptyList());
+        }
+    }
+    
+    /**
+     * The annotations of one class, method or field keyed by descriptor.
+     * */
+    private static final class Annotations{
+        @Nullable private List<AnnotationNode> visible;
+        @Nullable private List<AnnotationNode> invisible;
+        private int visibleSize = -1;
+        private int invisibleSize = -1;
+        private int version = -1;
+        
+        @NotNull private final Map<String, List<AnnotationNode>> byDesc = new HashMap<>();
+        
+        void validate(int version, @Nullable List<AnnotationNode> visible, @Nullable List<AnnotationNode> invisible){
+            if(
+                this.version == version &&
+                this.visible == visible && visibleSize == size(visible) &&
+                this.invisible == invisible && invisibleSize == size(invisible)
+            ){
+                return;
+            }
+            this.version = version;
+            this.visible = visible;
+            this.invisible = invisible;
+            visibleSize = size(visible);
+            invisibleSize = size(invisible);
+            
+            byDesc.clear();
+            add(visible);
+            add(invisible);
+            byDesc.replaceAll((desc, annotations)->Collections.unmodifiableList(annotations));
+        }
+        
+        private static int size(@Nullable List<AnnotationNode> annotations){
+            return annotations == null ? 0 : annotations.size();
+        }
+        
+        private void add(@Nullable List<AnnotationNode> annotations){
+            if(annotations != null){
+                for(AnnotationNode annotation : annotations){
+                    byDesc.computeIfAbsent(annotation.desc, (unused)->new ArrayList<>(1)).add(annotation);
+                }
+            }
+        }
+        
+        @NotNull
+        List<AnnotationNode> get(@NotNull String desc){
+            return byDesc.getOrDefault(desc, Collections.emptyList());
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * The basic blocks of a method and the edges between them.
+ *
+ * A block starts at the first instruction, at every jump, switch or exception handler target, at the start and end of
+ * every try block and after every instruction that doesn't fall through. Labels that nothing jumps to don't split
+ * blocks. Labels, line numbers and frames belong to the block they are in.
+ *
+ * Blocks have normal successors, where the last instruction of the block can go, and exception successors, the
+ * handlers of every try block that covers the block. Dominators and loop headers take both into account and are only
+ * computed when they are first asked for.
+ *
+ * Get the graph from the {@link ClassIndex ClassIndex} of the class while transforming, every transformer of the class
+ * shares it until the method is marked dirty. A graph describes the method as it was when the graph was built.
+ * */
+public final class ControlFlowGraph{
+    @NotNull private final MethodNode method;
+    @NotNull private final InsnList instructions;
+    private final int size;
+    private final int tryCatchBlocks;
+    @NotNull private final List<Block> blocks;
+    // The block of every instruction, by the index of the instruction
+    @NotNull private final int[] blockOf;
+    
+    // Only set once dominators were asked for
+    @Nullable private List<Block> loopHeaders;
+    
+    private ControlFlowGraph(@NotNull MethodNode method){
+        this.method = method;
+        instructions = method.instructions;
+        size = instructions.size();
+        tryCatchBlocks = method.tryCatchBlocks == null ? 0 : method.tryCatchBlocks.size();
+        
+        // Find the first instruction of every block
+        boolean[] leaders = new boolean[size + 1];
+        leaders[0] = true;
+        leaders[size] = true;
+        AbstractInsnNode[] nodes = instructions.toArray();
+        for(int i = 0; i < size; i++){
+            AbstractInsnNode node = nodes[i];
+            if(node instanceof JumpInsnNode){
+                leaders[instructions.indexOf(((JumpInsnNode)node).label)] = true;
+            }else if(node instanceof TableSwitchInsnNode){
+                TableSwitchInsnNode table = (TableSwitchInsnNode)node;
+                leaders[instructions.indexOf(table.dflt)] = true;
+                for(LabelNode label : table.labels){
+                    leaders[instructions.indexOf(label)] = true;
+                }
+            }else if(node instanceof LookupSwitchInsnNode){
+                LookupSwitchInsnNode lookup = (LookupSwitchInsnNode)node;
+                leaders[instructions.indexOf(lookup.dflt)] = true;
+                for(LabelNode label : lookup.labels){
+                    leaders[instructions.indexOf(label)] = true;
+                }
+            }
+            if(node instanceof JumpInsnNode || node instanceof TableSwitchInsnNode || node instanceof LookupSwitchInsnNode || isExit(node.getOpcode())){
+                leaders[i + 1] = true;
+            }
+        }
+        if(method.tryCatchBlocks != null){
+            for(TryCatchBlockNode tryCatch : method.tryCatchBlocks){
+                leaders[instructions.indexOf(tryCatch.start)] = true;
+                leaders[instructions.indexOf(tryCatch.end)] = true;
+                leaders[instructions.indexOf(tryCatch.handler)] = true;
+            }
+        }
+        
+        List<Block> blocks = new ArrayList<>();
+        blockOf = new int[size];
+        int start = 0;
+        for(int i = 1; i <= size; i++){
+            if(leaders[i]){
+                int index = blocks.size();
+                blocks.add(new Block(index, nodes[start], nodes[i - 1], start, i));
+                Arrays.fill(blockOf, start, i, index);
+                start = i;
+            }
+        }
+        this.blocks = Collections.unmodifiableList(blocks);
+        
+        for(Block block : blocks){
+            AbstractInsnNode last = block.last;
+            while(last != block.first && last.getOpcode() == -1){
+                last = last.getPrevious();
+            }
+            
+            int opcode = last.getOpcode();
+            if(last instanceof JumpInsnNode){
+                link(block, getBlock(((JumpInsnNode)last).label), false);
+            }else if(last instanceof TableSwitchInsnNode){
+                TableSwitchInsnNode table = (TableSwitchInsnNode)last;
+                link(block, getBlock(table.dflt), false);
+                for(LabelNode label : table.labels){
+                    link(block, getBlock(label), false);
+                }
+            }else if(last instanceof LookupSwitchInsnNode){
+                LookupSwitchInsnNode lookup = (LookupSwitchInsnNode)last;
+                link(block, getBlock(lookup.dflt), false);
+                for(LabelNode label : lookup.labels){
+                    link(block, getBlock(label), false);
+                }
+            }
+            
+            boolean fallsThrough = opcode != GOTO &&
+                !(last instanceof TableSwitchInsnNode) &&
+                !(last instanceof LookupSwitchInsnNode) &&
+                !isExit(opcode);
+            if(fallsThrough && block.index + 1 < blocks.size()){
+                link(block, blocks.get(block.index + 1), false);
+            }
+        }
+        
+        if(method.tryCatchBlocks != null){
+            for(TryCatchBlockNode tryCatch : method.tryCatchBlocks){
+                Block handler = getBlock(tryCatch.handler);
+                int end = instructions.indexOf(tryCatch.end);
+                for(int i = blockOf[instructions.indexOf(tryCatch.start)]; i < blocks.size() && blocks.get(i).start < end; i++){
+                    link(blocks.get(i), handler, true);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Builds the graph of a method.
+     *
+     * @param method The method, it must have code
+     *
+     * @return The graph
+     * */
+    @NotNull
+    public static ControlFlowGraph build(@NotNull MethodNode method){
+        if(method.instructions.size() == 0){
+            throw new IllegalArgumentException("Method " + method.name + method.desc + " has no code");
+        }
+        return new ControlFlowGraph(method);
+    }
+    
+    private static boolean isExit(int opcode){
+        return (opcode >= IRETURN && opcode <= RETURN) || opcode == ATHROW || opcode == RET;
+    }
+    
+    private static void link(@NotNull Block from, @NotNull Block to, boolean exception){
+        List<Block> successors = exception ? from.exceptionSuccessors : from.successors;
+        if(!successors.contains(to)){
+            successors.add(to);
+        }
+        if(!to.predecessors.contains(from)){
+            to.predecessors.add(from);
+        }
+    }
+    
+    @NotNull
+    private Block getBlock(@NotNull LabelNode label){
+        return blocks.get(blockOf[instructions.indexOf(label)]);
+    }
+    
+    /**
+     * Checks if this graph still describes its method, it does not notice instructions that were swapped in place.
+     *
+     * @return True if the instructions and try blocks of the method look the same
+     * */
+    boolean isCurrent(){
+        return method.instructions == instructions &&
+               instructions.size() == size &&
+               (method.tryCatchBlocks == null ? 0 : method.tryCatchBlocks.size()) == tryCatchBlocks;
+    }
+    
+    /**
+     * Gets the method of this graph.
+     *
+     * @return The method
+     * */
+    @NotNull
+    public MethodNode getMethod(){
+        return method;
+    }
+    
+    /**
+     * Gets all blocks, in instruction order.
+     *
+     * @return The blocks
+     * */
+    @NotNull
+    public List<@NotNull Block> getBlocks(){
+        return blocks;
+    }
+    
+    /**
+     * Gets the block the method starts with.
+     *
+     * @return The entry block
+     * */
+    @NotNull
+    public Block getEntry(){
+        return blocks.get(0);
+    }
+    
+    /**
+     * Gets the block an instruction belongs to.
+     *
+     * @param node The instruction
+     *
+     * @return The block, empty if the instruction is not part of the method
+     * */
+    @NotNull
+    public Optional<Block> getBlock(@NotNull AbstractInsnNode node){
+        // indexOf trusts the node, a node of another list has an index that points at something else
+        int index = instructions.indexOf(node);
+        if(index < 0 || index >= size || instructions.get(index) != node){
+            return Optional.empty();
+        }
+        return Optional.of(blocks.get(blockOf[index]));
+    }
+    
+    /**
+     * Gets the blocks that start a loop, the targets of edges from blocks they dominate.
+     *
+     * @return The loop headers, in instruction order
+     * */
+    @NotNull
+    public List<@NotNull Block> getLoopHeaders(){
+        if(loopHeaders == null){
+            computeDominators();
+            List<Block> headers = new ArrayList<>();
+            for(Block header : blocks){
+                for(Block predecessor : header.predecessors){
+                    if(header.dominates(predecessor)){
+                        header.loopHeader = true;
+                        headers.add(header);
+                        break;
+                    }
+                }
+            }
+            loopHeaders = Collections.unmodifiableList(headers);
+        }
+        return loopHeaders;
+    }
+    
+    /**
+     * Computes the immediate dominators with the iterative algorithm by Cooper, Harvey and Kennedy.
+     * */
+    private void computeDominators(){
+        if(getEntry().postorder != -1){
+            return;
+        }
+        
+        // Number the reachable blocks in postorder without recursion, big methods have thousands of blocks
+        List<Block> postorder = new ArrayList<>();
+        int[] next = new int[blocks.size()];
+        boolean[] seen = new boolean[blocks.size()];
+        List<Block> stack = new ArrayList<>();
+        stack.add(getEntry());
+        seen[0] = true;
+        while(!stack.isEmpty()){
+            Block block = stack.get(stack.size() - 1);
+            int edge = next[block.index]++;
+            int normal = block.successors.size();
+            if(edge < normal + block.exceptionSuccessors.size()){
+                Block successor = edge < normal ? block.successors.get(edge) : block.exceptionSuccessors.get(edge - normal);
+                if(!seen[successor.index]){
+                    seen[successor.index] = true;
+                    stack.add(successor);
+                }
+            }else{
+                stack.remove(stack.size() - 1);
+                block.postorder = postorder.size();
+                postorder.add(block);
+            }
+        }
+        
+        Block entry = getEntry();
+        entry.dominator = entry;
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int i = postorder.size() - 1; i >= 0; i--){
+                Block block = postorder.get(i);
+                if(block == entry){
+                    continue;
+                }
+                Block dominator = null;
+                for(Block predecessor : block.predecessors){
+                    if(predecessor.dominator == null){
+                        continue;
+                    }
+                    dominator = dominator == null ? predecessor : intersect(predecessor, dominator);
+                }
+                if(block.dominator != dominator){
+                    block.dominator = dominator;
+                    changed = true;
+                }
+            }
+        }
+    }
+    
+    @NotNull
+    private static Block intersect(@NotNull Block first, @NotNull Block second){
+        while(first != second){
+            while(first.postorder < second.postorder){
+                first = first.dominator;
+            }
+            while(second.postorder < first.postorder){
+                second = second.dominator;
+            }
+        }
+        return first;
+    }
+    
+    /**
+     * A run of instructions that is always entered at the top and only left at the bottom, exceptions aside.
+     * */
+    public final class Block{
+        private final int index;
+        @NotNull private final AbstractInsnNode first;
+        @NotNull private final AbstractInsnNode last;
+        private final int start;
+        private final int end;
+        @NotNull private final List<Block> successors = new ArrayList<>(2);
+        @NotNull private final List<Block> exceptionSuccessors = new ArrayList<>(0);
+        @NotNull private final List<Block> predecessors = new ArrayList<>(2);
+        
+        // Filled in by computeDominators
+        private int postorder = -1;
+        @Nullable private Block dominator;
+        // Filled in by getLoopHeaders
+        private boolean loopHeader;
+        
+        private Block(int index, @NotNull AbstractInsnNode first, @NotNull AbstractInsnNode last, int start, int end){
+            this.index = index;
+            this.first = first;
+            this.last = last;
+            this.start = start;
+            this.end = end;
+        }
+        
+        /**
+         * Gets the position of this block in {@link ControlFlowGraph#getBlocks() getBlocks}.
+         *
+         * @return The index
+         * */
+        public int getIndex(){
+            return index;
+        }
+        
+        /**
+         * Gets the first instruction of this block.
+         *
+         * @return The first instruction
+         * */
+        @NotNull
+        public AbstractInsnNode getFirst(){
+            return first;
+        }
+        
+        /**
+         * Gets the last instruction of this block, inclusive.
+         *
+         * @return The last instruction
+         * */
+        @NotNull
+        public AbstractInsnNode getLast(){
+            return last;
+        }
+        
+        /**
+         * Gets the amount of instructions in this block, including labels, line numbers and frames.
+         *
+         * @return The size
+         * */
+        public int getSize(){
+            return end - start;
+        }
+        
+        /**
+         * Gets the blocks that the last instruction of this block can continue with.
+         *
+         * @return The successors, this list must not be modified
+         * */
+        @NotNull
+        public List<@NotNull Block> getSuccessors(){
+            return successors;
+        }
+        
+        /**
+         * Gets the exception handlers that cover this block.
+         *
+         * @return The handler blocks, this list must not be modified
+         * */
+        @NotNull
+        public List<@NotNull Block> getExceptionSuccessors(){
+            return exceptionSuccessors;
+        }
+        
+        /**
+         * Gets the blocks that continue with this one, normally or through an exception.
+         *
+         * @return The predecessors, this list must not be modified
+         * */
+        @NotNull
+        public List<@NotNull Block> getPredecessors(){
+            return predecessors;
+        }
+        
+        /**
+         * Checks if this block can be reached from the start of the method.
+         *
+         * @return True if reachable
+         * */
+        public boolean isReachable(){
+            computeDominators();
+            return dominator != null;
+        }
+        
+        /**
+         * Gets the immediate dominator of this block, the closest block every path to this one goes through.
+         *
+         * @return The dominator, empty for the entry block and blocks that can't be reached
+         * */
+        @NotNull
+        public Optional<Block> getImmediateDominator(){
+            computeDominators();
+            return dominator == null || dominator == this ? Optional.empty() : Optional.of(dominator);
+        }
+        
+        /**
+         * Checks if every path from the start of the method to another block goes through this one. A block dominates
+         * itself.
+         *
+         * @param other The other block
+         *
+         * @return True if this block dominates the other block
+         * */
+        public boolean dominates(@NotNull Block other){
+            computeDominators();
+            if(dominator == null){
+                return false;
+            }
+            Block current = other;
+            while(current != null){
+                if(current == this){
+                    return true;
+                }
+                if(current.dominator == current){
+                    return false;
+                }
+                current = current.dominator;
+            }
+            return false;
+        }
+        
+        /**
+         * Checks if this block starts a loop.
+         *
+         * @return True if this is a loop header
+         * */
+        public boolean isLoopHeader(){
+            getLoopHeaders();
+            return loopHeader;
+        }
+        
+        @Override
+        public String toString(){
+            return "Block " + index + " [" + start + ", " + end + ")";
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import net.gudenau.minecraft.asm.api.v1.type.FieldType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+
+import static net.gudenau.minecraft.asm.api.v1.AsmUtils.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A field instruction search that is compiled once and reused.
+ *
+ * Create these where the transformer is created instead of for every class, all of the flag handling is done up front.
+ * Checking an instruction is one table lookup for the opcode and a hash compare before every string compare.
+ * */
+public final class FieldMatcher extends MemberMatcher{
+    private static final int[] FIELD_OPCODES = {
+        GETSTATIC, PUTSTATIC, GETFIELD, PUTFIELD
+    };
+    
+    /**
+     * Creates a matcher for every access of a field, regardless of the opcode.
+     *
+     * @param field The field to search for
+     * */
+    public FieldMatcher(@NotNull FieldType field){
+        this(FIELD_FLAG_IGNORE_OPCODE, -1, field);
+    }
+    
+    /**
+     * Creates a matcher that works like the flag based field searches of {@link AsmUtils AsmUtils}.
+     *
+     * @param flags Flags to control the search
+     * @param opcode Opcode, or -1 if it doesn't matter
+     * @param field The field to search for
+     * */
+    public FieldMatcher(int flags, int opcode, @NotNull FieldType field){
+        this(
+            (flags & FIELD_FLAG_IGNORE_OPCODE) != 0 ? -1 : opcode,
+            (flags & FIELD_FLAG_IGNORE_OWNER) != 0 ? null : field.getOwner().getInternalName(),
+            (flags & FIELD_FLAG_IGNORE_NAME) != 0 ? null : field.getName(),
+            (flags & FIELD_FLAG_IGNORE_DESCRIPTION) != 0 ? null : field.getDescriptor().getDescriptor()
+        );
+    }
+    
+    /**
+     * Creates a matcher out of the raw parts of a field instruction.
+     *
+     * @param opcode Opcode, or -1 if it doesn't matter
+     * @param owner The internal name of the owner, or null if it doesn't matter
+     * @param name The name of the field, or null if it doesn't matter
+     * @param description The descriptor of the field, or null if it doesn't matter
+     * */
+    public FieldMatcher(int opcode, @Nullable String owner, @Nullable String name, @Nullable String description){
+        super(FIELD_OPCODES, ":", opcode, owner, name, description);
+    }
+    
+    /**
+     * Checks if an instruction is a matching field instruction.
+     *
+     * @param node The instruction to check
+     *
+     * @return True if the instruction matches
+     * */
+    @Override
+    public boolean matches(@NotNull AbstractInsnNode node){
+        if(!matchesOpcode(node.getOpcode())){
+            return false;
+        }
+        FieldInsnNode field = (FieldInsnNode)node;
+        return matchesMember(field.owner, field.name, field.desc);
+    }
+}
@@ -0,0 +1,41 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * A class cache that is keyed by a hash gudASM computes instead of the original class.
+ *
+ * When the registered cache implements this gudASM hashes every class once and only uses these methods, the original
+ * bytes never reach the cache. Values are buffers so a cache can hand out views of its storage, like slices of a
+ * memory mapped file, instead of copying every hit into a new array.
+ *
+ * The byte array methods from {@link ClassCache ClassCache} are still needed for callers that don't know the hash.
+ *
+ * gudASM stores the output of every stage of its pipeline under its own hash, and those hashes already cover the mods
+ * and transformers. The fingerprint passed to {@link ClassCache#load(String) load} only changes with the environment,
+ * so stale entries have to be dropped by the cache itself over time instead of all at once.
+ * */
+public interface HashedClassCache extends ClassCache{
+    /**
+     * Get a cached class entry.
+     *
+     * The returned buffer is read from its position to its limit and never modified, it has to stay valid until the
+     * cache is saved.
+     *
+     * @param hash The hash of the original class
+     *
+     * @return The stored class
+     * */
+    Optional<ByteBuffer> getEntry(ClassHash hash);
+    
+    /**
+     * Creates an entry in the cache.
+     *
+     * The caller never modifies the buffer afterwards, so it can be kept without a copy but must not be modified.
+     *
+     * @param hash The hash of the original class
+     * @param modified The modified class, from its position to its limit
+     * */
+    void putEntry(ClassHash hash, ByteBuffer modified);
+}
@@ -0,0 +1,636 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import net.gudenau.minecraft.asm.api.v1.functional.BooleanFunction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+/**
+ * A regular expression over instructions.
+ *
+ * Patterns are put together out of single instruction checks, sequences, alternatives, repeats and named captures:
+ * <pre>
+ * InstructionPattern.sequence(
+ *     InstructionPattern.opcode(ALOAD),
+ *     InstructionPattern.match(new FieldMatcher(GETFIELD, owner, "x", "I")).capture("field"),
+ *     InstructionPattern.any().repeat(0, 3),
+ *     InstructionPattern.match(new MethodMatcher(INVOKEVIRTUAL, owner, "y", "(I)V")).capture("call")
+ * ).compile();
+ * </pre>
+ *
+ * A compiled pattern is a small program that is run by a Pike VM, every possible way the pattern could match is tracked
+ * at the same time instead of backtracking. A search looks at every instruction once, so it takes linear time in the
+ * length of the method no matter how the pattern is built. Repeats are greedy and alternatives prefer the first option
+ * that matches, the same as the alternatives of {@link java.util.regex.Pattern Pattern}.
+ *
+ * Compile patterns once, like the matchers, and reuse them for every class.
+ * */
+public final class InstructionPattern{
+    private static final int TYPE_NODE = 0;
+    private static final int TYPE_SEQUENCE = 1;
+    private static final int TYPE_ALTERNATIVE = 2;
+    private static final int TYPE_REPEAT = 3;
+    private static final int TYPE_CAPTURE = 4;
+    
+    private final int type;
+    @Nullable private final BooleanFunction<AbstractInsnNode> checker;
+    @NotNull private final InstructionPattern[] children;
+    private final int min;
+    private final int max;
+    @Nullable private final String name;
+    
+    private InstructionPattern(int type, @Nullable BooleanFunction<AbstractInsnNode> checker, @NotNull InstructionPattern[] children, int min, int max, @Nullable String name){
+        this.type = type;
+        this.checker = checker;
+        this.children = children;
+        this.min = min;
+        this.max = max;
+        this.name = name;
+    }
+    
+    /**
+     * Matches a single instruction that passes a check, like a {@link MethodMatcher MethodMatcher} or
+     * {@link FieldMatcher FieldMatcher}.
+     *
+     * @param checker The check
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public static InstructionPattern match(@NotNull BooleanFunction<AbstractInsnNode> checker){
+        return new InstructionPattern(TYPE_NODE, checker, new InstructionPattern[0], 1, 1, null);
+    }
+    
+    /**
+     * Matches a single instruction with one of the opcodes.
+     *
+     * @param opcodes The opcodes
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public static InstructionPattern opcode(int... opcodes){
+        // Labels, lines and frames have an opcode of -1, & 0xFF turns that into the last slot
+        boolean[] table = new boolean[256];
+        for(int opcode : opcodes){
+            table[opcode & 0xFF] = true;
+        }
+        return match((node)->table[node.getOpcode() & 0xFF]);
+    }
+    
+    /**
+     * Matches any single instruction.
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public static InstructionPattern any(){
+        return match((node)->true);
+    }
+    
+    /**
+     * Matches the patterns one after another.
+     *
+     * @param patterns The patterns
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public static InstructionPattern sequence(@NotNull InstructionPattern... patterns){
+        return new InstructionPattern(TYPE_SEQUENCE, null, patterns.clone(), 1, 1, null);
+    }
+    
+    /**
+     * Matches the first of the patterns that matches.
+     *
+     * @param patterns The patterns
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public static InstructionPattern anyOf(@NotNull InstructionPattern... patterns){
+        if(patterns.length == 0){
+            throw new IllegalArgumentException("anyOf needs at least one pattern");
+        }
+        return new InstructionPattern(TYPE_ALTERNATIVE, null, patterns.clone(), 1, 1, null);
+    }
+    
+    /**
+     * Matches this pattern between min and max times, as often as possible.
+     *
+     * @param min The minimum amount of repeats
+     * @param max The maximum amount of repeats, -1 for no limit
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public InstructionPattern repeat(int min, int max){
+        if(min < 0 || (max != -1 && max < min)){
+            throw new IllegalArgumentException("Bad repeat range " + min + " to " + max);
+        }
+        return new InstructionPattern(TYPE_REPEAT, null, new InstructionPattern[]{this}, min, max, null);
+    }
+    
+    /**
+     * Matches this pattern once or not at all.
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public InstructionPattern optional(){
+        return repeat(0, 1);
+    }
+    
+    /**
+     * Matches this pattern any amount of times.
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public InstructionPattern zeroOrMore(){
+        return repeat(0, -1);
+    }
+    
+    /**
+     * Matches this pattern at least once.
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public InstructionPattern oneOrMore(){
+        return repeat(1, -1);
+    }
+    
+    /**
+     * Remembers the instructions matched by this pattern, they can be read from the {@link Match Match} by name.
+     *
+     * When a capture matches more than once, in a repeat for example, the last time wins.
+     *
+     * @param name The name of the capture
+     *
+     * @return The pattern
+     * */
+    @NotNull
+    public InstructionPattern capture(@NotNull String name){
+        return new InstructionPattern(TYPE_CAPTURE, null, new InstructionPattern[]{this}, 1, 1, name);
+    }
+    
+    /**
+     * Compiles this pattern, labels, line numbers and frames are skipped.
+     *
+     * @return The compiled pattern
+     * */
+    @NotNull
+    public Compiled compile(){
+        return compile(true);
+    }
+    
+    /**
+     * Compiles this pattern.
+     *
+     * @param skipPseudoInstructions Skip labels, line numbers and frames instead of matching them
+     *
+     * @return The compiled pattern
+     * */
+    @NotNull
+    public Compiled compile(boolean skipPseudoInstructions){
+        if(isNullable()){
+            throw new IllegalArgumentException("Pattern can match nothing at all");
+        }
+        Compiler compiler = new Compiler();
+        compiler.emit(Compiled.OP_SAVE, 0, 0);
+        compiler.compile(this);
+        compiler.emit(Compiled.OP_SAVE, 1, 0);
+        compiler.emit(Compiled.OP_ACCEPT, 0, 0);
+        return new Compiled(compiler, skipPseudoInstructions);
+    }
+    
+    private boolean isNullable(){
+        switch(type){
+            case TYPE_NODE:
+                return false;
+            
+            case TYPE_SEQUENCE:
+                for(InstructionPattern child : children){
+                    if(!child.isNullable()){
+                        return false;
+                    }
+                }
+                return true;
+            
+            case TYPE_ALTERNATIVE:
+                for(InstructionPattern child : children){
+                    if(child.isNullable()){
+                        return true;
+                    }
+                }
+                return false;
+            
+            case TYPE_REPEAT:
+                return min == 0 || children[0].isNullable();
+            
+            default:
+                return children[0].isNullable();
+        }
+    }
+    
+    /**
+     * Turns the pattern tree into a flat program, the classic Thompson construction.
+     * */
+    private static final class Compiler{
+        private int[] ops = new int[16];
+        private int[] first = new int[16];
+        private int[] second = new int[16];
+        private int size;
+        private final List<BooleanFunction<AbstractInsnNode>> checkers = new ArrayList<>();
+        private final Map<String, Integer> groups = new HashMap<>();
+        
+        int emit(int op, int first, int second){
+            if(size == ops.length){
+                ops = Arrays.copyOf(ops, size << 1);
+                this.first = Arrays.copyOf(this.first, size << 1);
+                this.second = Arrays.copyOf(this.second, size << 1);
+            }
+            ops[size] = op;
+            this.first[size] = first;
+            this.second[size] = second;
+            return size++;
+        }
+        
+        void compile(@NotNull InstructionPattern pattern){
+            switch(pattern.type){
+                case TYPE_NODE:
+                    checkers.add(pattern.checker);
+                    emit(Compiled.OP_NODE, checkers.size() - 1, 0);
+                    break;
+                
+                case TYPE_SEQUENCE:
+                    for(InstructionPattern child : pattern.children){
+                        compile(child);
+                    }
+                    break;
+                
+                case TYPE_ALTERNATIVE:
+                    compileAlternative(pattern.children);
+                    break;
+                
+                case TYPE_REPEAT:
+                    compileRepeat(pattern.children[0], pattern.min, pattern.max);
+                    break;
+                
+                case TYPE_CAPTURE:
+                    int group = groups.computeIfAbsent(pattern.name, (name)->groups.size() + 1);
+                    emit(Compiled.OP_SAVE, group << 1, 0);
+                    compile(pattern.children[0]);
+                    emit(Compiled.OP_SAVE, (group << 1) + 1, 0);
+                    break;
+            }
+        }
+        
+        private void compileAlternative(@NotNull InstructionPattern[] children){
+            // Every option but the last is a split that tries it first and falls through to the next one
+            int[] jumps = new int[children.length - 1];
+            for(int i = 0; i < jumps.length; i++){
+                int split = emit(Compiled.OP_SPLIT, 0, 0);
+                first[split] = size;
+                compile(children[i]);
+                jumps[i] = emit(Compiled.OP_JUMP, 0, 0);
+                second[split] = size;
+            }
+            compile(children[jumps.length]);
+            for(int jump : jumps){
+                first[jump] = size;
+            }
+        }
+        
+        private void compileRepeat(@NotNull InstructionPattern child, int min, int max){
+            for(int i = 0; i < min; i++){
+                compile(child);
+            }
+            if(max == -1){
+                int split = emit(Compiled.OP_SPLIT, 0, 0);
+                first[split] = size;
+                compile(child);
+                emit(Compiled.OP_JUMP, split, 0);
+                second[split] = size;
+            }else{
+                // Once an optional copy is skipped the rest are skipped too
+                int[] splits = new int[max - min];
+                for(int i = 0; i < splits.length; i++){
+                    splits[i] = emit(Compiled.OP_SPLIT, 0, 0);
+                    first[splits[i]] = size;
+                    compile(child);
+                }
+                for(int split : splits){
+                    second[split] = size;
+                }
+            }
+        }
+    }
+    
+    /**
+     * A compiled pattern, safe to share between threads.
+     * */
+    public static final class Compiled{
+        private static final int OP_NODE = 0;
+        private static final int OP_SPLIT = 1;
+        private static final int OP_JUMP = 2;
+        private static final int OP_SAVE = 3;
+        private static final int OP_ACCEPT = 4;
+        
+        @NotNull private final int[] ops;
+        @NotNull private final int[] first;
+        @NotNull private final int[] second;
+        @NotNull private final BooleanFunction<AbstractInsnNode>[] checkers;
+        @NotNull private final Map<String, Integer> groups;
+        private final int slotCount;
+        private final boolean skipPseudoInstructions;
+        
+        @SuppressWarnings("unchecked")
+        private Compiled(@NotNull Compiler compiler, boolean skipPseudoInstructions){
+            ops = Arrays.copyOf(compiler.ops, compiler.size);
+            first = Arrays.copyOf(compiler.first, compiler.size);
+            second = Arrays.copyOf(compiler.second, compiler.size);
+            checkers = (BooleanFunction<AbstractInsnNode>[])compiler.checkers.toArray(new BooleanFunction<?>[0]);
+            groups = Collections.unmodifiableMap(new HashMap<>(compiler.groups));
+            slotCount = (groups.size() + 1) << 1;
+            this.skipPseudoInstructions = skipPseudoInstructions;
+        }
+        
+        /**
+         * Finds the first match in an instruction list.
+         *
+         * @param instructions The instructions to search
+         *
+         * @return The first match
+         * */
+        @NotNull
+        public Optional<Match> find(@NotNull InsnList instructions){
+            return find(instructions.getFirst());
+        }
+        
+        /**
+         * Finds the first match that starts at or after an instruction.
+         *
+         * @param start The first instruction to check, inclusive
+         *
+         * @return The first match
+         * */
+        @NotNull
+        public Optional<Match> find(@Nullable AbstractInsnNode start){
+            return Optional.ofNullable(run(start, false));
+        }
+        
+        /**
+         * Checks if the pattern matches starting exactly at an instruction.
+         *
+         * @param start The first instruction of the match
+         *
+         * @return The match
+         * */
+        @NotNull
+        public Optional<Match> matchAt(@NotNull AbstractInsnNode start){
+            return Optional.ofNullable(run(start, true));
+        }
+        
+        /**
+         * Finds every match in an instruction list, matches don't overlap.
+         *
+         * @param instructions The instructions to search
+         *
+         * @return All matches, in order
+         * */
+        @NotNull
+        public List<@NotNull Match> findAll(@NotNull InsnList instructions){
+            List<Match> matches = new ArrayList<>();
+            AbstractInsnNode start = instructions.getFirst();
+            while(start != null){
+                Match match = run(start, false);
+                if(match == null){
+                    break;
+                }
+                matches.add(match);
+                start = match.getEnd().getNext();
+            }
+            return matches;
+        }
+        
+        @Nullable
+        private AbstractInsnNode skip(@Nullable AbstractInsnNode node){
+            if(skipPseudoInstructions){
+                while(node != null && node.getOpcode() == -1){
+                    node = node.getNext();
+                }
+            }
+            return node;
+        }
+        
+        @Nullable
+        private Match run(@Nullable AbstractInsnNode start, boolean anchored){
+            Threads current = new Threads(ops.length);
+            Threads next = new Threads(ops.length);
+            List<AbstractInsnNode> nodes = new ArrayList<>();
+            int[] matched = null;
+            
+            AbstractInsnNode node = skip(start);
+            for(int position = 0; ; position++){
+                // New threads start with the lowest priority, so earlier starts win
+                if(matched == null && (!anchored || position == 0)){
+                    int[] slots = new int[slotCount];
+                    Arrays.fill(slots, -1);
+                    add(current, 0, slots, position);
+                }
+                if(current.size == 0){
+                    break;
+                }
+                
+                next.clear();
+                for(int i = 0; i < current.size; i++){
+                    int pc = current.pcs[i];
+                    if(ops[pc] == OP_ACCEPT){
+                        // Everything after this thread has a lower priority, drop it
+                        matched = current.slots[i];
+                        break;
+                    }
+                    if(node != null && checkers[first[pc]].apply(node)){
+                        add(next, pc + 1, current.slots[i], position + 1);
+                    }
+                }
+                
+                if(node == null){
+                    break;
+                }
+                nodes.add(node);
+                node = skip(node.getNext());
+                
+                Threads swap = current;
+                current = next;
+                next = swap;
+            }
+            
+            return matched == null ? null : new Match(nodes, matched, groups);
+        }
+        
+        /**
+         * Adds a thread and follows its jumps, splits and saves right away so the lists only hold instruction checks
+         * and accepts.
+         * */
+        private void add(@NotNull Threads threads, int pc, @NotNull int[] slots, int position){
+            if(threads.contains(pc)){
+                return;
+            }
+            threads.mark(pc);
+            switch(ops[pc]){
+                case OP_JUMP:
+                    add(threads, first[pc], slots, position);
+                    break;
+                
+                case OP_SPLIT:
+                    add(threads, first[pc], slots, position);
+                    add(threads, second[pc], slots, position);
+                    break;
+                
+                case OP_SAVE:
+                    int[] copy = slots.clone();
+                    copy[first[pc]] = position;
+                    add(threads, pc + 1, copy, position);
+                    break;
+                
+                default:
+                    threads.add(pc, slots);
+                    break;
+            }
+        }
+    }
+    
+    /**
+     * A list of threads with one slot per program counter, a sparse set so clearing is free.
+     * */
+    private static final class Threads{
+        private final int[] pcs;
+        private final int[][] slots;
+        private final int[] dense;
+        private final int[] sparse;
+        private int size;
+        private int marked;
+        
+        Threads(int length){
+            pcs = new int[length];
+            slots = new int[length][];
+            dense = new int[length];
+            sparse = new int[length];
+        }
+        
+        boolean contains(int pc){
+            int index = sparse[pc];
+            return index < marked && dense[index] == pc;
+        }
+        
+        void mark(int pc){
+            sparse[pc] = marked;
+            dense[marked++] = pc;
+        }
+        
+        void add(int pc, @NotNull int[] slots){
+            pcs[size] = pc;
+            this.slots[size++] = slots;
+        }
+        
+        void clear(){
+            size = 0;
+            marked = 0;
+        }
+    }
+    
+    /**
+     * A match of a pattern.
+     *
+     * When labels, line numbers and frames are skipped they are not part of the node lists, but they can still be
+     * between the start and the end of the match.
+     * */
+    public static final class Match{
+        @NotNull private final List<AbstractInsnNode> nodes;
+        @NotNull private final int[] slots;
+        @NotNull private final Map<String, Integer> groups;
+        
+        private Match(@NotNull List<AbstractInsnNode> nodes, @NotNull int[] slots, @NotNull Map<String, Integer> groups){
+            this.nodes = nodes;
+            this.slots = slots;
+            this.groups = groups;
+        }
+        
+        /**
+         * Gets the first instruction of the match.
+         *
+         * @return The first instruction
+         * */
+        @NotNull
+        public AbstractInsnNode getStart(){
+            return nodes.get(slots[0]);
+        }
+        
+        /**
+         * Gets the last instruction of the match.
+         *
+         * @return The last instruction
+         * */
+        @NotNull
+        public AbstractInsnNode getEnd(){
+            return nodes.get(slots[1] - 1);
+        }
+        
+        /**
+         * Gets the matched instructions.
+         *
+         * @return The instructions
+         * */
+        @NotNull
+        public List<@NotNull AbstractInsnNode> getNodes(){
+            return Collections.unmodifiableList(nodes.subList(slots[0], slots[1]));
+        }
+        
+        /**
+         * Gets the instructions of a capture.
+         *
+         * @param name The name of the capture
+         *
+         * @return The instructions, empty if the capture was not part of the match
+         * */
+        @NotNull
+        public List<@NotNull AbstractInsnNode> getGroup(@NotNull String name){
+            Integer group = groups.get(name);
+            if(group == null){
+                throw new IllegalArgumentException("Unknown capture " + name);
+            }
+            int start = slots[group << 1];
+            int end = slots[(group << 1) + 1];
+            if(start == -1 || end == -1){
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableList(nodes.subList(start, end));
+        }
+        
+        /**
+         * Gets the first instruction of a capture, handy for captures of a single instruction.
+         *
+         * @param name The name of the capture
+         * @param <T> The type of the instruction
+         *
+         * @return The instruction, if the capture was part of the match
+         * */
+        @SuppressWarnings("unchecked")
+        @NotNull
+        public <T extends AbstractInsnNode> Optional<T> getNode(@NotNull String name){
+            List<AbstractInsnNode> group = getGroup(name);
+            return group.isEmpty() ? Optional.empty() : Optional.of((T)group.get(0));
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.gudenau.minecraft.asm.api.v1.functional.BooleanFunction;
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A set of instruction searches that are all done in one walk over the instructions.
+ *
+ * Calling {@link AsmUtils#findMethodCalls(InsnList, MethodMatcher) findMethodCalls} once per target walks the method
+ * once per target, a query walks it once in total. Method and field matchers are found with a hash lookup on their
+ * owner and name, so the cost of an instruction barely depends on how many of them are in the query.
+ *
+ * Like the matchers a query should be built once and reused for every class.
+ * */
+public final class InstructionQuery{
+    private static final int[] NONE = new int[0];
+    
+    private static final byte KIND_METHOD = 1;
+    private static final byte KIND_FIELD = 2;
+    // Labels, lines and frames have an opcode of -1, & 0xFF turns that into 0xFF which is not an instruction
+    private static final byte[] KINDS = new byte[256];
+    static{
+        for(int opcode : new int[]{INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE}){
+            KINDS[opcode] = KIND_METHOD;
+        }
+        for(int opcode : new int[]{GETSTATIC, PUTSTATIC, GETFIELD, PUTFIELD}){
+            KINDS[opcode] = KIND_FIELD;
+        }
+    }
+    
+    @NotNull private final Map<Object, Integer> indices;
+    @NotNull private final int[][] opcodes;
+    @NotNull private final Dispatch methods;
+    @NotNull private final Dispatch fields;
+    @NotNull private final int[] checkerIndices;
+    @NotNull private final BooleanFunction<AbstractInsnNode>[] checkers;
+    
+    private InstructionQuery(@NotNull Map<Object, Integer> indices, @NotNull int[][] opcodes, @NotNull Dispatch methods, @NotNull Dispatch fields, @NotNull int[] checkerIndices, @NotNull BooleanFunction<AbstractInsnNode>[] checkers){
+        this.indices = indices;
+        this.opcodes = opcodes;
+        this.methods = methods;
+        this.fields = fields;
+        this.checkerIndices = checkerIndices;
+        this.checkers = checkers;
+    }
+    
+    /**
+     * Creates a new builder.
+     *
+     * @return The builder
+     * */
+    @NotNull
+    public static Builder builder(){
+        return new Builder();
+    }
+    
+    /**
+     * Runs this query over every method of a class.
+     *
+     * @param owner The class to search
+     *
+     * @return The matches of every method, grouped by pattern
+     * */
+    @NotNull
+    public Result find(@NotNull ClassNode owner){
+        Result result = new Result(indices);
+        for(MethodNode method : owner.methods){
+            find(method.instructions, result);
+        }
+        return result;
+    }
+    
+    /**
+     * Runs this query over a method.
+     *
+     * @param method The method to search
+     *
+     * @return The matches, grouped by pattern
+     * */
+    @NotNull
+    public Result find(@NotNull MethodNode method){
+        return find(method.instructions);
+    }
+    
+    /**
+     * Runs this query over an instruction list.
+     *
+     * @param instructions The instructions to search
+     *
+     * @return The matches, grouped by pattern
+     * */
+    @NotNull
+    public Result find(@NotNull InsnList instructions){
+        Result result = new Result(indices);
+        find(instructions, result);
+        return result;
+    }
+    
+    private void find(@NotNull InsnList instructions, @NotNull Result result){
+        for(AbstractInsnNode node = instructions.getFirst(); node != null; node = node.getNext()){
+            int opcode = node.getOpcode() & 0xFF;
+            int[] matches = opcodes[opcode];
+            if(matches != null){
+                for(int index : matches){
+                    result.add(index, node);
+                }
+            }
+            
+            byte kind = KINDS[opcode];
+            if(kind == KIND_METHOD){
+                MethodInsnNode method = (MethodInsnNode)node;
+                methods.find(node, opcode, method.owner, method.name, method.desc, result);
+            }else if(kind == KIND_FIELD){
+                FieldInsnNode field = (FieldInsnNode)node;
+                fields.find(node, opcode, field.owner, field.name, field.desc, result);
+            }
+            
+            for(int i = 0; i < checkers.length; i++){
+                if(checkers[i].apply(node)){
+                    result.add(checkerIndices[i], node);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The same check for method and field matchers, lets one dispatch table handle both.
+     * */
+    @FunctionalInterface
+    private interface MemberMatcher{
+        boolean matches(int opcode, @NotNull String owner, @NotNull String name, @NotNull String description);
+    }
+    
+    /**
+     * Finds the matchers that could match a member reference.
+     *
+     * Matchers with an owner and a name are keyed by both, matchers with only a name by the name. Only matchers
+     * without a name have to be checked against every reference. The keys are string hashes, colliding matchers share
+     * a bucket and are sorted out by the matcher itself.
+     * */
+    private static final class Dispatch{
+        private final Int2ObjectOpenHashMap<int[]> byOwnerAndName = new Int2ObjectOpenHashMap<>();
+        private final Int2ObjectOpenHashMap<int[]> byName = new Int2ObjectOpenHashMap<>();
+        private int[] wildcards = NONE;
+        private final List<MemberMatcher> matchers = new ArrayList<>();
+        private final List<Integer> matcherIndices = new ArrayList<>();
+        private MemberMatcher[] matcherArray;
+        private int[] indexArray;
+        
+        void add(int index, @NotNull MemberMatcher matcher, String owner, String name){
+            int local = matchers.size();
+            matchers.add(matcher);
+            matcherIndices.add(index);
+            if(name == null){
+                wildcards = append(wildcards, local);
+            }else if(owner == null){
+                byName.put(name.hashCode(), append(byName.getOrDefault(name.hashCode(), NONE), local));
+            }else{
+                int key = key(owner, name);
+                byOwnerAndName.put(key, append(byOwnerAndName.getOrDefault(key, NONE), local));
+            }
+        }
+        
+        void freeze(){
+            matcherArray = matchers.toArray(new MemberMatcher[0]);
+            indexArray = matcherIndices.stream().mapToInt(Integer::intValue).toArray();
+            byOwnerAndName.trim();
+            byName.trim();
+        }
+        
+        private static int key(@NotNull String owner, @NotNull String name){
+            return 31 * owner.hashCode() + name.hashCode();
+        }
+        
+        void find(@NotNull AbstractInsnNode node, int opcode, @NotNull String owner, @NotNull String name, @NotNull String description, @NotNull Result result){
+            if(matcherArray.length == 0){
+                return;
+            }
+            if(!byOwnerAndName.isEmpty()){
+                find(byOwnerAndName.get(key(owner, name)), node, opcode, owner, name, description, result);
+            }
+            if(!byName.isEmpty()){
+                find(byName.get(name.hashCode()), node, opcode, owner, name, description, result);
+            }
+            find(wildcards, node, opcode, owner, name, description, result);
+        }
+        
+        private void find(int[] candidates, @NotNull AbstractInsnNode node, int opcode, @NotNull String owner, @NotNull String name, @NotNull String description, @NotNull Result result){
+            if(candidates == null){
+                return;
+            }
+            for(int candidate : candidates){
+                if(matcherArray[candidate].matches(opcode, owner, name, description)){
+                    result.add(indexArray[candidate], node);
+                }
+            }
+        }
+    }
+    
+    private static int[] append(@NotNull int[] array, int value){
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+    
+    /**
+     * The matches of a query, grouped by the pattern that matched.
+     *
+     * An instruction that matches more than one pattern is in the list of every one of them. The lists are in
+     * instruction order.
+     * */
+    public static final class Result{
+        @NotNull private final Map<Object, Integer> indices;
+        @NotNull private final List<AbstractInsnNode>[] matches;
+        
+        @SuppressWarnings("unchecked")
+        private Result(@NotNull Map<Object, Integer> indices){
+            this.indices = indices;
+            matches = (List<AbstractInsnNode>[])new List<?>[indices.size()];
+        }
+        
+        private void add(int index, @NotNull AbstractInsnNode node){
+            List<AbstractInsnNode> list = matches[index];
+            if(list == null){
+                list = matches[index] = new ArrayList<>();
+            }
+            list.add(node);
+        }
+        
+        @SuppressWarnings("unchecked")
+        @NotNull
+        private <T extends AbstractInsnNode> List<T> get(@NotNull Object pattern){
+            Integer index = indices.get(pattern);
+            if(index == null){
+                throw new IllegalArgumentException("Pattern " + pattern + " is not part of this query");
+            }
+            List<AbstractInsnNode> list = matches[index];
+            return list == null ? Collections.emptyList() : (List<T>)Collections.unmodifiableList(list);
+        }
+        
+        /**
+         * Gets the calls that matched a method matcher.
+         *
+         * @param matcher The matcher, or an equal one
+         *
+         * @return The matching calls
+         * */
+        @NotNull
+        public List<@NotNull MethodInsnNode> getMethodCalls(@NotNull MethodMatcher matcher){
+            return get(matcher);
+        }
+        
+        /**
+         * Gets the instructions that matched a field matcher.
+         *
+         * @param matcher The matcher, or an equal one
+         *
+         * @return The matching field instructions
+         * */
+        @NotNull
+        public List<@NotNull FieldInsnNode> getFieldNodes(@NotNull FieldMatcher matcher){
+            return get(matcher);
+        }
+        
+        /**
+         * Gets the instructions with an opcode.
+         *
+         * @param opcode The opcode
+         *
+         * @return The matching instructions
+         * */
+        @NotNull
+        public List<@NotNull AbstractInsnNode> getNodes(int opcode){
+            return get(opcode);
+        }
+        
+        /**
+         * Gets the instructions that matched a checker.
+         *
+         * @param checker The checker
+         * @param <T> The type of node the checker looks for
+         *
+         * @return The matching instructions
+         * */
+        @NotNull
+        public <T extends AbstractInsnNode> List<@NotNull T> getNodes(@NotNull BooleanFunction<AbstractInsnNode> checker){
+            return get(checker);
+        }
+        
+        /**
+         * Checks if nothing matched at all.
+         *
+         * @return True if there are no matches
+         * */
+        public boolean isEmpty(){
+            for(List<AbstractInsnNode> list : matches){
+                if(list != null){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Builds an {@link InstructionQuery InstructionQuery}.
+     *
+     * Adding a pattern that is equal to one that was already added does nothing, both share the same results.
+     * */
+    public static final class Builder{
+        private final Map<Object, Integer> indices = new LinkedHashMap<>();
+        
+        private Builder(){}
+        
+        /**
+         * Searches for method calls.
+         *
+         * @param matcher The calls to search for
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder add(@NotNull MethodMatcher matcher){
+            indices.putIfAbsent(matcher, indices.size());
+            return this;
+        }
+        
+        /**
+         * Searches for field instructions.
+         *
+         * @param matcher The instructions to search for
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder add(@NotNull FieldMatcher matcher){
+            indices.putIfAbsent(matcher, indices.size());
+            return this;
+        }
+        
+        /**
+         * Searches for instructions with an opcode.
+         *
+         * @param opcode The opcode
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder opcode(int opcode){
+            indices.putIfAbsent(opcode, indices.size());
+            return this;
+        }
+        
+        /**
+         * Searches for instructions that match a checker.
+         *
+         * Checkers can't be dispatched and are called for every instruction, prefer the matchers and opcodes.
+         *
+         * @param checker The checker
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder add(@NotNull BooleanFunction<AbstractInsnNode> checker){
+            indices.putIfAbsent(checker, indices.size());
+            return this;
+        }
+        
+        /**
+         * Creates the query.
+         *
+         * @return The query
+         * */
+        @SuppressWarnings("unchecked")
+        @NotNull
+        public InstructionQuery build(){
+            int[][] opcodes = new int[256][];
+            Dispatch methods = new Dispatch();
+            Dispatch fields = new Dispatch();
+            List<Integer> checkerIndices = new ArrayList<>();
+            List<BooleanFunction<AbstractInsnNode>> checkers = new ArrayList<>();
+            for(Map.Entry<Object, Integer> entry : indices.entrySet()){
+                Object pattern = entry.getKey();
+                int index = entry.getValue();
+                if(pattern instanceof MethodMatcher){
+                    MethodMatcher matcher = (MethodMatcher)pattern;
+                    methods.add(index, matcher::matches, matcher.getOwner(), matcher.getName());
+                }else if(pattern instanceof FieldMatcher){
+                    FieldMatcher matcher = (FieldMatcher)pattern;
+                    fields.add(index, matcher::matches, matcher.getOwner(), matcher.getName());
+                }else if(pattern instanceof Integer){
+                    int opcode = ((Integer)pattern) & 0xFF;
+                    opcodes[opcode] = append(opcodes[opcode] == null ? NONE : opcodes[opcode], index);
+                }else{
+                    checkerIndices.add(index);
+                    checkers.add((BooleanFunction<AbstractInsnNode>)pattern);
+                }
+            }
+            methods.freeze();
+            fields.freeze();
+            
+            return new InstructionQuery(
+                Collections.unmodifiableMap(new HashMap<>(indices)),
+                opcodes,
+                methods,
+                fields,
+                checkerIndices.stream().mapToInt(Integer::intValue).toArray(),
+                (BooleanFunction<AbstractInsnNode>[])checkers.toArray(new BooleanFunction<?>[0])
+            );
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import java.util.Arrays;
+import java.util.Objects;
+import net.gudenau.minecraft.asm.api.v1.functional.BooleanFunction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+/**
+ * The shared part of {@link MethodMatcher MethodMatcher} and {@link FieldMatcher FieldMatcher}, an opcode table and
+ * owner, name and descriptor compares that check a precomputed hash before the strings.
+ * */
+abstract class MemberMatcher implements BooleanFunction<AbstractInsnNode>{
+    // Indexed by opcode & 0xFF, instructions without an opcode end up at 0xFF which is never set
+    private final boolean[] opcodes = new boolean[256];
+    private final int opcode;
+    @Nullable private final String owner;
+    @Nullable private final String name;
+    @Nullable private final String description;
+    private final int ownerHash;
+    private final int nameHash;
+    private final int descriptionHash;
+    private final int hash;
+    @NotNull private final String separator;
+    
+    /**
+     * Builds the opcode table and interns the strings.
+     *
+     * @param memberOpcodes The sorted opcodes of the instructions this kind of matcher handles
+     * @param separator Goes between the name and the descriptor in {@link #toString() toString}
+     * @param opcode Opcode, or -1 if it doesn't matter
+     * @param owner The internal name of the owner, or null if it doesn't matter
+     * @param name The name of the member, or null if it doesn't matter
+     * @param description The descriptor of the member, or null if it doesn't matter
+     * */
+    MemberMatcher(@NotNull int[] memberOpcodes, @NotNull String separator, int opcode, @Nullable String owner, @Nullable String name, @Nullable String description){
+        this.opcode = opcode;
+        this.owner = owner == null ? null : owner.intern();
+        this.name = name == null ? null : name.intern();
+        this.description = description == null ? null : description.intern();
+        ownerHash = owner == null ? 0 : owner.hashCode();
+        nameHash = name == null ? 0 : name.hashCode();
+        descriptionHash = description == null ? 0 : description.hashCode();
+        hash = 31 * (31 * (31 * opcode + ownerHash) + nameHash) + descriptionHash;
+        this.separator = separator;
+        
+        if(opcode == -1){
+            for(int member : memberOpcodes){
+                opcodes[member] = true;
+            }
+        }else if(Arrays.binarySearch(memberOpcodes, opcode) >= 0){
+            opcodes[opcode] = true;
+        }
+    }
+    
+    /**
+     * Checks if an instruction matches.
+     *
+     * @param node The instruction to check
+     *
+     * @return True if the instruction matches
+     * */
+    public abstract boolean matches(@NotNull AbstractInsnNode node);
+    
+    /**
+     * Checks if an opcode is one this matcher looks for, always false for instructions of other kinds.
+     * */
+    final boolean matchesOpcode(int opcode){
+        return opcodes[opcode & 0xFF];
+    }
+    
+    /**
+     * Checks the owner, name and descriptor of an instruction that already passed {@link #matchesOpcode(int)}.
+     * */
+    final boolean matchesMember(@NotNull String owner, @NotNull String name, @NotNull String description){
+        return matches(this.name, nameHash, name) &&
+               matches(this.owner, ownerHash, owner) &&
+               matches(this.description, descriptionHash, description);
+    }
+    
+    /**
+     * Checks if an instruction matches, for use in visitors.
+     *
+     * @param opcode The opcode of the instruction
+     * @param owner The internal name of the owner
+     * @param name The name of the member
+     * @param description The descriptor of the member
+     *
+     * @return True if the instruction matches
+     * */
+    public boolean matches(int opcode, @NotNull String owner, @NotNull String name, @NotNull String description){
+        return matchesOpcode(opcode) && matchesMember(owner, name, description);
+    }
+    
+    private static boolean matches(@Nullable String expected, int hash, @NotNull String actual){
+        // Strings from a ClassReader are shared per constant, the hash of one is only computed for the first compare
+        return expected == null || expected == actual || (hash == actual.hashCode() && expected.equals(actual));
+    }
+    
+    @Override
+    public boolean apply(AbstractInsnNode node){
+        return matches(node);
+    }
+    
+    /**
+     * Gets the opcode this matcher looks for.
+     *
+     * @return The opcode, or -1 if it doesn't matter
+     * */
+    public int getOpcode(){
+        return opcode;
+    }
+    
+    /**
+     * Gets the owner this matcher looks for.
+     *
+     * @return The internal name of the owner, or null if it doesn't matter
+     * */
+    @Nullable
+    public String getOwner(){
+        return owner;
+    }
+    
+    /**
+     * Gets the name this matcher looks for.
+     *
+     * @return The name of the member, or null if it doesn't matter
+     * */
+    @Nullable
+    public String getName(){
+        return name;
+    }
+    
+    /**
+     * Gets the descriptor this matcher looks for.
+     *
+     * @return The descriptor of the member, or null if it doesn't matter
+     * */
+    @Nullable
+    public String getDescription(){
+        return description;
+    }
+    
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+        MemberMatcher that = (MemberMatcher)o;
+        return hash == that.hash &&
+            opcode == that.opcode &&
+            Objects.equals(owner, that.owner) &&
+            Objects.equals(name, that.name) &&
+            Objects.equals(description, that.description);
+    }
+    
+    @Override
+    public int hashCode(){
+        return hash;
+    }
+    
+    @Override
+    public String toString(){
+        return (opcode == -1 ? "*" : AsmUtils.getOpcodeName(opcode)) + ' ' +
+            (owner == null ? "*" : owner) + '.' +
+            (name == null ? "*" : name) + separator +
+            (description == null ? "*" : description);
+    }
+}
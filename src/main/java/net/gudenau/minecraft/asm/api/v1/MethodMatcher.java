@@ -0,0 +1,75 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import net.gudenau.minecraft.asm.api.v1.type.MethodType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+import static net.gudenau.minecraft.asm.api.v1.AsmUtils.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A method call search that is compiled once and reused.
+ *
+ * Create these where the transformer is created instead of for every class, all of the flag handling is done up front.
+ * Checking an instruction is one table lookup for the opcode and a hash compare before every string compare.
+ * */
+public final class MethodMatcher extends MemberMatcher{
+    private static final int[] METHOD_OPCODES = {
+        INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE
+    };
+    
+    /**
+     * Creates a matcher for every call of a method, regardless of the opcode.
+     *
+     * @param method The method to search for
+     * */
+    public MethodMatcher(@NotNull MethodType method){
+        this(METHOD_FLAG_IGNORE_OPCODE, -1, method);
+    }
+    
+    /**
+     * Creates a matcher that works like the flag based method searches of {@link AsmUtils AsmUtils}.
+     *
+     * @param flags Flags to control the search
+     * @param opcode Opcode, or -1 if it doesn't matter
+     * @param method The method to search for
+     * */
+    public MethodMatcher(int flags, int opcode, @NotNull MethodType method){
+        this(
+            (flags & METHOD_FLAG_IGNORE_OPCODE) != 0 ? -1 : opcode,
+            (flags & METHOD_FLAG_IGNORE_OWNER) != 0 ? null : method.getOwner().getInternalName(),
+            (flags & METHOD_FLAG_IGNORE_NAME) != 0 ? null : method.getName(),
+            (flags & METHOD_FLAG_IGNORE_DESCRIPTION) != 0 ? null : method.getDescriptor().getDescriptor()
+        );
+    }
+    
+    /**
+     * Creates a matcher out of the raw parts of a method call.
+     *
+     * @param opcode Opcode, or -1 if it doesn't matter
+     * @param owner The internal name of the owner, or null if it doesn't matter
+     * @param name The name of the method, or null if it doesn't matter
+     * @param description The descriptor of the method, or null if it doesn't matter
+     * */
+    public MethodMatcher(int opcode, @Nullable String owner, @Nullable String name, @Nullable String description){
+        super(METHOD_OPCODES, "", opcode, owner, name, description);
+    }
+    
+    /**
+     * Checks if an instruction is a matching method call.
+     *
+     * @param node The instruction to check
+     *
+     * @return True if the instruction matches
+     * */
+    @Override
+    public boolean matches(@NotNull AbstractInsnNode node){
+        if(!matchesOpcode(node.getOpcode())){
+            return false;
+        }
+        MethodInsnNode method = (MethodInsnNode)node;
+        return matchesMember(method.owner, method.name, method.desc);
+    }
+}
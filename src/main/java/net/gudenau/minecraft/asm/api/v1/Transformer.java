@@ -1,28 +1,12 @@
 package net.gudenau.minecraft.asm.api.v1;
 
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
 /**
- * The entry point for bytecode transformers.
+ * The entry point for bytecode transformers, works on a whole {@link ClassNode ClassNode}.
  * */
-public interface Transformer{
-    /**
-     * The name of this transformer.
-     *
-     * @return The identifier of this transformer
-     * */
-    Identifier getName();
-    
-    /**
-     * A quick check to see if this transformer might handle a class.
-     *
-     * @param name The name of the class
-     * @param transformedName The transformed name of the class
-     *
-     * @return true if the class might get transformed
-     * */
-    boolean handlesClass(String name, String transformedName);
-    
+public interface Transformer extends BaseTransformer{
     /**
      * Transforms a class.
      *
@@ -46,5 +30,45 @@ public interface Transformer{
          * Request that ASM calculate frames when writing the modified class.
          * */
         void requestFrames();
+        
+        /**
+         * Marks the class as modified, visitor transformers have to call this when they change anything.
+         * */
+        void markModified();
+        
+        /**
+         * Marks a method as changed.
+         *
+         * If a transformer marks any method it promises that every other method that was in the class before it ran
+         * was left alone, including annotations and access flags. Untouched methods are then copied as is when the class
+         * gets written and maxes and frames are only computed for the changed ones. New methods don't have to be marked.
+         *
+         * A transformer that changes the class without marking anything causes a full rewrite.
+         *
+         * @param name The name of the method
+         * @param descriptor The descriptor of the method
+         * */
+        void markDirty(String name, String descriptor);
+        
+        /**
+         * Marks a method as changed.
+         *
+         * @param method The method
+         *
+         * @see #markDirty(String, String)
+         * */
+        default void markDirty(MethodNode method){
+            markDirty(method.name, method.desc);
+        }
+        
+        /**
+         * Gets the index of the class that is being transformed, shared by every tree transformer of the class.
+         *
+         * Only available in {@link Transformer#transform(ClassNode, Flags) transform}, visitor transformers don't have a
+         * tree to index.
+         *
+         * @return The index
+         * */
+        ClassIndex getIndex();
     }
 }
@@ -0,0 +1,264 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import net.gudenau.minecraft.asm.api.v1.type.FieldType;
+import net.gudenau.minecraft.asm.api.v1.type.MethodType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A declarative description of the classes a transformer wants to see.
+ *
+ * Targets are compiled into an index when the registry is frozen, so finding the transformers for a class costs about
+ * the length of its name instead of a {@link Transformer#handlesClass(String, String) handlesClass} call per
+ * transformer.
+ *
+ * All names are binary names, like `net.minecraft.client.MinecraftClient`.
+ * */
+public final class TransformerTargets{
+    @NotNull private final Set<String> classes;
+    @NotNull private final Set<String> prefixes;
+    @NotNull private final List<Pattern> patterns;
+    @NotNull private final Set<MethodType> methodReferences;
+    @NotNull private final Set<FieldType> fieldReferences;
+    
+    private TransformerTargets(@NotNull Set<String> classes, @NotNull Set<String> prefixes, @NotNull List<Pattern> patterns, @NotNull Set<MethodType> methodReferences, @NotNull Set<FieldType> fieldReferences){
+        this.classes = classes;
+        this.prefixes = prefixes;
+        this.patterns = patterns;
+        this.methodReferences = methodReferences;
+        this.fieldReferences = fieldReferences;
+    }
+    
+    /**
+     * Creates a new builder.
+     *
+     * @return The builder
+     * */
+    @NotNull
+    public static Builder builder(){
+        return new Builder();
+    }
+    
+    /**
+     * Gets the exact class names.
+     *
+     * @return The class names
+     * */
+    @NotNull
+    public Set<String> getClasses(){
+        return classes;
+    }
+    
+    /**
+     * Gets the name prefixes, usually packages.
+     *
+     * @return The prefixes
+     * */
+    @NotNull
+    public Set<String> getPrefixes(){
+        return prefixes;
+    }
+    
+    /**
+     * Gets the name patterns.
+     *
+     * @return The patterns
+     * */
+    @NotNull
+    public List<Pattern> getPatterns(){
+        return patterns;
+    }
+    
+    /**
+     * Gets the methods a class has to reference.
+     *
+     * @return The methods
+     * */
+    @NotNull
+    public Set<MethodType> getMethodReferences(){
+        return methodReferences;
+    }
+    
+    /**
+     * Gets the fields a class has to reference.
+     *
+     * @return The fields
+     * */
+    @NotNull
+    public Set<FieldType> getFieldReferences(){
+        return fieldReferences;
+    }
+    
+    /**
+     * Checks if any references are required.
+     *
+     * @return True if there are method or field references
+     * */
+    public boolean hasReferences(){
+        return !methodReferences.isEmpty() || !fieldReferences.isEmpty();
+    }
+    
+    /**
+     * Checks if a class is targeted by name, the index does this faster. References are not checked.
+     *
+     * @param name The name of the class
+     *
+     * @return True if the class is targeted
+     * */
+    public boolean matches(@NotNull String name){
+        if(classes.contains(name)){
+            return true;
+        }
+        for(String prefix : prefixes){
+            if(name.startsWith(prefix)){
+                return true;
+            }
+        }
+        for(Pattern pattern : patterns){
+            if(pattern.matcher(name).matches()){
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Builds {@link TransformerTargets TransformerTargets}, a class is targeted if its name matches anything added here.
+     *
+     * If references are added a targeted class also has to reference at least one of them. When there are only
+     * references every class is checked for them.
+     * */
+    public static final class Builder{
+        private final Set<String> classes = new HashSet<>();
+        private final Set<String> prefixes = new HashSet<>();
+        private final List<Pattern> patterns = new ArrayList<>();
+        private final Set<MethodType> methodReferences = new HashSet<>();
+        private final Set<FieldType> fieldReferences = new HashSet<>();
+        
+        private Builder(){}
+        
+        /**
+         * Targets a single class.
+         *
+         * @param name The name of the class
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder exact(@NotNull String name){
+            classes.add(name);
+            return this;
+        }
+        
+        /**
+         * Targets every class with a name that starts with a prefix.
+         *
+         * Include the trailing dot for packages, `net.minecraft.` does not match `net.minecraftforge.` classes.
+         *
+         * @param prefix The prefix
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder prefix(@NotNull String prefix){
+            prefixes.add(prefix);
+            return this;
+        }
+        
+        /**
+         * Targets every class with a name that fully matches a pattern.
+         *
+         * Patterns have to be checked for every class, prefer {@link #exact(String)} and {@link #prefix(String)}.
+         *
+         * @param pattern The pattern
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder pattern(@NotNull Pattern pattern){
+            patterns.add(pattern);
+            return this;
+        }
+        
+        /**
+         * Targets every class with a name that fully matches a regular expression.
+         *
+         * @param regex The regular expression
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder pattern(@NotNull String regex){
+            return pattern(Pattern.compile(regex));
+        }
+        
+        /**
+         * Only targets classes that reference a method, by calling it, declaring it or creating a handle to it.
+         *
+         * This is checked against the constant pool of the class, so the owner has to be exact. Early transformers are
+         * checked before Mixin runs, late transformers against the class Mixin produced. When a class only exists as a
+         * changed tree at that point late transformers are not checked and get the class anyway.
+         *
+         * @param method The method
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder references(@NotNull MethodType method){
+            methodReferences.add(method);
+            return this;
+        }
+        
+        /**
+         * Only targets classes that reference a field, by accessing it, declaring it or creating a handle to it.
+         *
+         * This is checked against the constant pool of the class, so the owner has to be exact. Early transformers are
+         * checked before Mixin runs, late transformers against the class Mixin produced. When a class only exists as a
+         * changed tree at that point late transformers are not checked and get the class anyway.
+         *
+         * @param field The field
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder references(@NotNull FieldType field){
+            fieldReferences.add(field);
+            return this;
+        }
+        
+        /**
+         * Targets every class.
+         *
+         * @return This builder
+         * */
+        @NotNull
+        public Builder all(){
+            return prefix("");
+        }
+        
+        /**
+         * Creates the targets.
+         *
+         * @return The targets
+         * */
+        @NotNull
+        public TransformerTargets build(){
+            Set<String> prefixes = new HashSet<>(this.prefixes);
+            if(classes.isEmpty() && prefixes.isEmpty() && patterns.isEmpty() && !(methodReferences.isEmpty() && fieldReferences.isEmpty())){
+                prefixes.add("");
+            }
+            return new TransformerTargets(
+                Collections.unmodifiableSet(new HashSet<>(classes)),
+                Collections.unmodifiableSet(prefixes),
+                Collections.unmodifiableList(new ArrayList<>(patterns)),
+                Collections.unmodifiableSet(new HashSet<>(methodReferences)),
+                Collections.unmodifiableSet(new HashSet<>(fieldReferences))
+            );
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package net.gudenau.minecraft.asm.api.v1;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * A transformer that works on a stream of class events instead of a whole tree.
+ *
+ * Adjacent visitor transformers are chained into a single pass, if they are the first or last transformers the pass
+ * is fused into parsing or writing the class. This is much cheaper than a {@link ClassNode ClassNode} for small
+ * changes like renaming a call or flipping an access flag.
+ *
+ * Visitor transformers never see a tree, they are registered through their own overloads in
+ * {@link AsmRegistry AsmRegistry} and mixed freely with {@link Transformer Transformer}s.
+ * */
+public interface VisitorTransformer extends BaseTransformer{
+    /**
+     * Creates the visitor for a class.
+     *
+     * Request maxes or frames here, the writer might already be created by the time the visitor runs. Call
+     * {@link Transformer.Flags#markModified()} when the class gets changed, otherwise the changes get thrown away.
+     *
+     * @param visitor The next visitor in the chain
+     * @param flags Various flags that might be useful
+     *
+     * @return The visitor, or the passed visitor to leave the class alone
+     * */
+    ClassVisitor createVisitor(ClassVisitor visitor, Transformer.Flags flags);
+}
@@ -2,19 +2,35 @@ package net.gudenau.minecraft.asm.impl;
 
 import java.io.IOException;
 import java.lang.invoke.MethodHandle;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.entrypoint.EntrypointContainer;
 import net.gudenau.minecraft.asm.api.v1.AsmInitializer;
 import net.gudenau.minecraft.asm.api.v1.ClassCache;
+import net.gudenau.minecraft.asm.api.v1.ClassHash;
+import net.gudenau.minecraft.asm.api.v1.HashedClassCache;
+import net.gudenau.minecraft.asm.impl.cache.UnchangedClasses;
+import net.gudenau.minecraft.asm.impl.cache.WriteBehindClassCache;
 import net.gudenau.minecraft.asm.util.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.spongepowered.asm.mixin.MixinEnvironment;
 import org.spongepowered.asm.mixin.transformer.FabricMixinTransformerProxy;
 import org.spongepowered.asm.mixin.transformer.IMixinTransformer;
 
 // Bootstraps all the mess we make.
 public class Bootstrap{
+    private static final Logger LOGGER = LogManager.getLogger("gud_asm");
+    
     public static boolean enableCache = false;
     
+    // The transformer we put into Knot, kept for the cache baker
+    private static MixinTransformer transformer;
+    
     public static void setup(){
         // Load the configuration
         try{
@@ -27,30 +43,116 @@ public class Bootstrap{
         RegistryImpl registry = RegistryImpl.INSTANCE;
     
         registry.setFrozen(false);
+        long initializersStart = System.nanoTime();
+        int initializerCount = 0;
+        // Serial on purpose, registration order decides the order transformers run in
         for(EntrypointContainer<AsmInitializer> container : loader.getEntrypointContainers("gud_asm", AsmInitializer.class)){
             AsmInitializer initializer = container.getEntrypoint();
             if(initializer != null){
+                long start = System.nanoTime();
                 initializer.onInitializeAsm();
+                LOGGER.debug("ASM initializer from {} took {}ms", container.getProvider().getMetadata().getId(), (System.nanoTime() - start) / 1000000);
+                initializerCount++;
             }
         }
+        LOGGER.info("Ran {} ASM initializers in {}ms", initializerCount, (System.nanoTime() - initializersStart) / 1000000);
         registry.setFrozen(true);
         
-        // Let the cache load itself
-        ClassCache cache = registry.getCache().orElse(null);
+        // Let the cache load itself in the background, anything created by a different set of transformers or mods gets
+        // thrown out here. Class loads wait for the parts they need.
+        // Writes to the cache go through a background thread that also saves the cache periodically
+        ClassCache cache = registry.getCache().map(WriteBehindClassCache::wrap).orElse(null);
+        CompletableFuture<Boolean> cacheLoaded = null;
+        CompletableFuture<Void> unchangedLoaded = null;
+        long cacheSeed = 0;
+        UnchangedClasses unchangedClasses = null;
         if(cache != null){
-            try{
-                cache.load();
-                enableCache = true;
-            }catch(IOException e){
-                new RuntimeException("Failed to load class cache " + cache.getName(), e).printStackTrace();
-            }
+            Fingerprint fingerprint = Fingerprint.compute();
+            // Caches that take our hashes get every stage keyed on its own, a change to the mods or transformers only
+            // misses the stages it affects instead of throwing the whole cache away
+            Fingerprint cacheFingerprint = cache instanceof HashedClassCache ? Fingerprint.computeEnvironment() : fingerprint;
+            cacheSeed = ClassHash.seed(cacheFingerprint.toString());
+            // The class hierarchy is kept next to the cache, it only changes when the mods do
+            Path cacheDirectory = Configuration.getCacheDirectory();
+            Path hierarchyPath = cacheDirectory.resolve("hierarchy.dat");
+            // So are the classes no transformer changed, they don't need a copy in the cache. Their stage hashes would
+            // pile up forever under the environment alone, so they start over whenever the mods or transformers change
+            unchangedClasses = new UnchangedClasses(cacheDirectory.resolve("unchanged.dat"));
+            UnchangedClasses unchanged = unchangedClasses;
+            
+            // The cache, the unchanged classes and the hierarchy load on their own threads, a class load only waits for
+            // the part it looks at and nothing waits for the hierarchy
+            cacheLoaded = CompletableFuture.supplyAsync(()->{
+                long start = System.nanoTime();
+                try{
+                    cache.load(cacheFingerprint.toString());
+                }catch(IOException e){
+                    new RuntimeException("Failed to load class cache " + cache.getName(), e).printStackTrace();
+                    return false;
+                }
+                LOGGER.info("Loaded class cache {} in {}ms", cache.getName(), (System.nanoTime() - start) / 1000000);
+                return true;
+            }, (task)->startDaemon(task, "gudASM Cache Loader"));
+            unchangedLoaded = CompletableFuture.runAsync(()->{
+                try{
+                    unchanged.load(fingerprint);
+                }catch(IOException e){
+                    new RuntimeException("Failed to load unchanged classes", e).printStackTrace();
+                }
+            }, (task)->startDaemon(task, "gudASM Unchanged Class Loader"));
+            CompletableFuture<Void> hierarchyLoaded = CompletableFuture.runAsync(()->{
+                try{
+                    ClassHierarchy.INSTANCE.load(hierarchyPath, fingerprint);
+                }catch(IOException e){
+                    new RuntimeException("Failed to load class hierarchy", e).printStackTrace();
+                }
+            }, (task)->startDaemon(task, "gudASM Hierarchy Loader"));
+            enableCache = true;
+            
+            CompletableFuture<Boolean> finalCacheLoaded = cacheLoaded;
+            CompletableFuture<Void> finalUnchangedLoaded = unchangedLoaded;
+            Runtime.getRuntime().addShutdownHook(new Thread(()->{
+                if(finalCacheLoaded.join()){
+                    try{
+                        cache.save();
+                    }catch(IOException e){
+                        new RuntimeException("Failed to save class cache " + cache.getName(), e).printStackTrace();
+                    }
+                }
+                finalUnchangedLoaded.join();
+                try{
+                    unchanged.save();
+                }catch(IOException e){
+                    new RuntimeException("Failed to save unchanged classes", e).printStackTrace();
+                }
+            }, "gudASM Cache Saver"));
+            Runtime.getRuntime().addShutdownHook(new Thread(()->{
+                hierarchyLoaded.join();
+                try{
+                    ClassHierarchy.INSTANCE.save(hierarchyPath, fingerprint);
+                }catch(IOException e){
+                    new RuntimeException("Failed to save class hierarchy", e).printStackTrace();
+                }
+            }, "gudASM Hierarchy Saver"));
         }
         
-        // Clean out the class dump if dumping is enabled
+        // Clean out the class dump if dumping is enabled, moving it out of the way is enough to start a new one
         if(Configuration.DUMP.get() != Configuration.DumpMode.OFF){
+            Path gameDir = loader.getGameDir();
+            Path dumpDir = gameDir.resolve("gudASMDump");
             try{
-                FileUtils.delete(loader.getGameDir().resolve("gudASMDump"));
+                if(Files.exists(dumpDir)){
+                    Files.move(dumpDir, gameDir.resolve("gudASMDump.old-" + System.currentTimeMillis()));
+                }
             }catch(IOException ignored){}
+            startDaemon(()->{
+                // Includes anything a previous run didn't get to
+                try(DirectoryStream<Path> oldDumps = Files.newDirectoryStream(gameDir, "gudASMDump.old-*")){
+                    for(Path oldDump : oldDumps){
+                        FileUtils.delete(oldDump);
+                    }
+                }catch(IOException ignored){}
+            }, "gudASM Dump Cleaner");
         }
         
         // Hack into knot.
@@ -79,8 +181,7 @@ public class Bootstrap{
             MixinEnvironment$transformer$setter.invokeExact((IMixinTransformer)null);
             
             // Create our transformer
-            MixinTransformer customTransformer = enableCache ? new MixinTransformer.Cache(originalTransformer, cache) : new MixinTransformer(originalTransformer);
-            RegistryImpl.INSTANCE.setTransformer(customTransformer);
+            MixinTransformer customTransformer = enableCache ? new MixinTransformer.Cache(originalTransformer, cache, cacheSeed, unchangedClasses, cacheLoaded, unchangedLoaded) : new MixinTransformer(originalTransformer);
             
             // Restore the original to keep the environment as sane as possible
             MixinEnvironment$transformer$setter.invokeExact(originalTransformer);
@@ -88,6 +189,7 @@ public class Bootstrap{
             // Set our custom transformer so it will be used in future class loads
             MethodHandle KnotClassDelegate$mixinTransformer$setter = ReflectionHelper.findSetter(KnotClassDelegate, KnotClassLoader$delegate, "mixinTransformer", FabricMixinTransformerProxy.class);
             KnotClassDelegate$mixinTransformer$setter.invokeExact((FabricMixinTransformerProxy)customTransformer);
+            transformer = customTransformer;
         }catch(Throwable t){
             new RuntimeException("Failed to hook into Knot", t).printStackTrace();
             System.exit(0);
@@ -95,4 +197,19 @@ public class Bootstrap{
             throw new RuntimeException("Failed to hook into Knot", t);
         }
     }
+    
+    /**
+     * Gets the transformer that was hooked into Knot.
+     *
+     * @return The transformer, if the hook worked
+     * */
+    static Optional<MixinTransformer> getTransformer(){
+        return Optional.ofNullable(transformer);
+    }
+    
+    private static void startDaemon(Runnable task, String name){
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
 }
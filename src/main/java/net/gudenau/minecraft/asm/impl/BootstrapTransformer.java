@@ -2,6 +2,7 @@ package net.gudenau.minecraft.asm.impl;
 
 import java.util.List;
 import net.gudenau.minecraft.asm.api.v1.AsmUtils;
+import net.gudenau.minecraft.asm.api.v1.ClassIndex;
 import net.gudenau.minecraft.asm.api.v1.Identifier;
 import net.gudenau.minecraft.asm.api.v1.Transformer;
 import org.objectweb.asm.Type;
@@ -46,13 +47,15 @@ public class BootstrapTransformer implements Transformer{
     public boolean transform(ClassNode classNode, Flags flags){
         boolean changed = AsmUtils.removeAnnotations(classNode, FORCEBOOTLOADER);
         
+        ClassIndex index = flags.getIndex();
         for(MethodNode method : classNode.methods){
-            List<AnnotationNode> annotations = AsmUtils.getAnnotations(method, ASM_FORCEINLINE);
+            List<AnnotationNode> annotations = index.getAnnotations(method, ASM_FORCEINLINE);
             if(!annotations.isEmpty()){
                 for(AnnotationNode annotation : annotations){
                     annotation.desc = JVM_FORCEINLINE.getDescriptor();
                     changed = true;
                 }
+                flags.markDirty(method);
             }
         }
         
@@ -0,0 +1,196 @@
+package net.gudenau.minecraft.asm.impl;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+import net.fabricmc.loader.entrypoint.EntrypointTransformer;
+import net.fabricmc.loader.transformer.FabricTransformer;
+import net.gudenau.minecraft.asm.util.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Fills the class cache ahead of time so the first boot after an update doesn't have to transform anything.
+ *
+ * The baker starts a dedicated server with the given mods in a throwaway game directory. Once every mod is initialized
+ * it runs every class of the game and the mods through the same steps Knot uses, on all cores, then exits before the
+ * server starts. The cache ends up in the output directory, point cacheDirectory at a copy of it on the servers.
+ *
+ * The cache is only used when the fingerprint matches, so bake with the exact mods, loader and gudASM config the
+ * servers run with. The config directory of a server can be passed along, it is copied into the throwaway game
+ * directory.
+ *
+ * Run it with the same classpath as the Fabric server launcher:
+ * <pre>java -cp ... net.gudenau.minecraft.asm.impl.CacheBaker &lt;game jar&gt; &lt;mods directory&gt; [output directory] [config directory]</pre>
+ * */
+public class CacheBaker{
+    private static final String BAKE_PROPERTY = "gudasm.bake";
+    
+    public static void main(String[] args) throws Throwable{
+        if(args.length < 2 || args.length > 4){
+            System.err.println("Usage: CacheBaker <game jar> <mods directory> [output directory] [config directory]");
+            System.exit(1);
+            return;
+        }
+        Path gameJar = Paths.get(args[0]).toAbsolutePath();
+        Path modsDir = Paths.get(args[1]).toAbsolutePath();
+        Path output = Paths.get(args.length >= 3 ? args[2] : "gudASMCache").toAbsolutePath();
+        
+        // Keeps the config, world and logs of the baking server away from anything real
+        Path gameDir = Files.createTempDirectory("gudASMBake");
+        Runtime.getRuntime().addShutdownHook(new Thread(()->{
+            try{
+                FileUtils.delete(gameDir);
+            }catch(IOException ignored){}
+        }, "gudASM Bake Cleanup"));
+        Path gameMods = Files.createDirectories(gameDir.resolve("mods"));
+        try(DirectoryStream<Path> mods = Files.newDirectoryStream(modsDir, "*.jar")){
+            for(Path mod : mods){
+                Files.copy(mod, gameMods.resolve(mod.getFileName().toString()));
+            }
+        }
+        if(args.length == 4){
+            // The gudASM config is part of the fingerprint and mods might read theirs while registering transformers
+            Path configDir = Paths.get(args[3]).toAbsolutePath();
+            Path gameConfig = gameDir.resolve("config");
+            try(Stream<Path> paths = Files.walk(configDir)){
+                for(Path path : (Iterable<Path>)paths::iterator){
+                    Path target = gameConfig.resolve(configDir.relativize(path).toString());
+                    if(Files.isDirectory(path)){
+                        Files.createDirectories(target);
+                    }else{
+                        Files.copy(path, target);
+                    }
+                }
+            }
+        }
+        
+        System.setProperty(BAKE_PROPERTY, output.toString());
+        System.setProperty("fabric.gameJarPath", gameJar.toString());
+        Class.forName("net.fabricmc.loader.launch.knot.KnotServer")
+            .getMethod("main", String[].class)
+            .invoke(null, (Object)new String[]{"--gameDir", gameDir.toString(), "nogui"});
+    }
+    
+    /**
+     * Checks if this game was started by the baker.
+     *
+     * @return True when baking
+     * */
+    public static boolean isBaking(){
+        return System.getProperty(BAKE_PROPERTY) != null;
+    }
+    
+    /**
+     * Gets the directory the baked cache goes to.
+     *
+     * @return The output directory, if baking
+     * */
+    static Optional<Path> getOutput(){
+        return Optional.ofNullable(System.getProperty(BAKE_PROPERTY)).map(Paths::get);
+    }
+    
+    /**
+     * Transforms every class of the game and the mods and exits, the cache is saved on the way out.
+     * */
+    public static void bake(){
+        // Not a field, main runs before the game set up logging
+        Logger logger = LogManager.getLogger("gud_asm");
+        
+        Optional<MixinTransformer> transformer = Bootstrap.getTransformer();
+        if(!transformer.isPresent() || !Bootstrap.enableCache){
+            logger.error("Can't bake the class cache, the cache is disabled or gudASM failed to hook into Knot");
+            System.exit(1);
+            return;
+        }
+        
+        // The first mod to provide a class wins, same as on the classpath
+        Map<String, Path> classes = new LinkedHashMap<>();
+        FabricLoader loader = FabricLoader.getInstance();
+        for(ModContainer mod : loader.getAllMods()){
+            Path root = mod.getRootPath();
+            try(Stream<Path> paths = Files.walk(root)){
+                paths.forEach((path)->{
+                    String name = root.relativize(path).toString();
+                    if(!name.endsWith(".class") || name.startsWith("META-INF") || name.endsWith("module-info.class")){
+                        return;
+                    }
+                    name = name.substring(0, name.length() - 6).replace(path.getFileSystem().getSeparator(), ".");
+                    classes.putIfAbsent(name, path);
+                });
+            }catch(IOException e){
+                new RuntimeException("Failed to list classes of " + mod.getMetadata().getId(), e).printStackTrace();
+            }
+        }
+        
+        // Knot's pre-Mixin step is loader internals, check that they are still where we expect before baking anything
+        boolean development = loader.isDevelopmentEnvironment();
+        EnvType environment = loader.getEnvironmentType();
+        EntrypointTransformer entrypointTransformer;
+        try{
+            entrypointTransformer = ((net.fabricmc.loader.FabricLoader)loader).getGameProvider().getEntrypointTransformer();
+            FabricTransformer.class.getMethod("transform", boolean.class, EnvType.class, String.class, byte[].class);
+        }catch(ClassCastException | LinkageError | ReflectiveOperationException e){
+            logger.error("Can't bake the class cache, this Fabric loader does not work like the one gudASM was built against", e);
+            System.exit(1);
+            return;
+        }
+        
+        long start = System.nanoTime();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (task)->{
+            Thread thread = new Thread(task, "gudASM Baker " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(CacheBaker.class.getClassLoader());
+            return thread;
+        });
+        AtomicInteger failed = new AtomicInteger();
+        MixinTransformer mixinTransformer = transformer.get();
+        for(Map.Entry<String, Path> entry : classes.entrySet()){
+            String name = entry.getKey();
+            Path path = entry.getValue();
+            executor.execute(()->{
+                try{
+                    mixinTransformer.transformClassBytes(name, name, getPreMixinClass(name, path, entrypointTransformer, development, environment));
+                }catch(Throwable t){
+                    // Mixins themselves and classes for the other side can't be transformed, they are never loaded here
+                    failed.incrementAndGet();
+                    logger.debug("Failed to bake {}", name, t);
+                }
+            });
+        }
+        executor.shutdown();
+        try{
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }catch(InterruptedException ignored){}
+        
+        logger.info("Baked {} classes in {}ms, {} could not be transformed", classes.size(), (System.nanoTime() - start) / 1000000, failed.get());
+        // The cache savers are shutdown hooks
+        System.exit(0);
+    }
+    
+    /**
+     * Does what Knot does to a class before handing it to Mixin, entry point hooks, environment stripping and access
+     * wideners. The class would be hashed differently than on the servers otherwise.
+     * */
+    private static byte[] getPreMixinClass(String name, Path path, EntrypointTransformer entrypointTransformer, boolean development, EnvType environment) throws IOException{
+        byte[] bytecode = entrypointTransformer.transform(name);
+        if(bytecode == null){
+            bytecode = Files.readAllBytes(path);
+        }
+        return FabricTransformer.transform(development, environment, name, bytecode);
+    }
+}
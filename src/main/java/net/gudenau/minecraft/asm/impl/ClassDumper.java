@@ -0,0 +1,152 @@
+package net.gudenau.minecraft.asm.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes dumped classes into a single jar.
+ *
+ * Classes go through a bounded queue to one writer thread that drains it in batches. When the queue is full the class
+ * loader either waits or the class is dropped, depending on the config. The jar is finished when the game exits.
+ * */
+class ClassDumper{
+    private static final Logger LOGGER = LogManager.getLogger("gud_asm");
+    private static final int QUEUE_SIZE = 1024;
+    private static final int BATCH_SIZE = 64;
+    private static final Entry END = new Entry(null, null);
+    
+    private final Path path;
+    private final boolean block;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicInteger dropped = new AtomicInteger();
+    private volatile boolean closed = false;
+    private volatile Thread thread;
+    
+    /**
+     * Creates a new dumper, nothing is created on disk until the first class gets dumped.
+     *
+     * @param path The jar to write
+     * @param block True to wait when the queue is full, false to drop the class
+     * */
+    ClassDumper(Path path, boolean block){
+        this.path = path;
+        this.block = block;
+    }
+    
+    /**
+     * Queues a class to be written.
+     *
+     * @param name The binary name of the class
+     * @param bytecode The class
+     * */
+    void dump(String name, byte[] bytecode){
+        if(closed || bytecode == null){
+            return;
+        }
+        if(started.compareAndSet(false, true)){
+            start();
+        }
+        
+        Entry entry = new Entry(name.replace('.', '/') + ".class", bytecode);
+        if(block){
+            try{
+                // Don't wait forever if the writer died or is shutting down
+                while(!queue.offer(entry, 100, TimeUnit.MILLISECONDS)){
+                    if(closed){
+                        return;
+                    }
+                }
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }else if(!queue.offer(entry)){
+            dropped.incrementAndGet();
+        }
+    }
+    
+    private void start(){
+        Thread thread = new Thread(this::write, "gudASM Class Dumper");
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "gudASM Class Dumper Cleanup"));
+    }
+    
+    /**
+     * Finishes the jar, waits for every queued class.
+     * */
+    private void close(){
+        closed = true;
+        Thread thread = this.thread;
+        try{
+            while(thread.isAlive() && !queue.offer(END, 100, TimeUnit.MILLISECONDS)){}
+            thread.join();
+        }catch(InterruptedException ignored){}
+        
+        int dropped = this.dropped.get();
+        if(dropped != 0){
+            LOGGER.warn("Dropped {} classes from the dump, the writer could not keep up", dropped);
+        }
+    }
+    
+    private void write(){
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        // Entries have to be unique in a jar
+        Set<String> written = new HashSet<>();
+        try{
+            Files.createDirectories(path.getParent());
+            try(ZipOutputStream stream = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))){
+                stream.setLevel(Deflater.BEST_SPEED);
+                while(true){
+                    batch.add(queue.take());
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    for(Entry entry : batch){
+                        if(entry == END){
+                            return;
+                        }
+                        if(written.add(entry.name)){
+                            stream.putNextEntry(new ZipEntry(entry.name));
+                            stream.write(entry.bytecode);
+                            stream.closeEntry();
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+        }catch(IOException e){
+            new RuntimeException("Failed to dump classes to " + path, e).printStackTrace();
+        }catch(InterruptedException ignored){}
+        
+        // Something went wrong, unblock everyone waiting on the queue
+        closed = true;
+        queue.clear();
+    }
+    
+    private static final class Entry{
+        private final String name;
+        private final byte[] bytecode;
+        
+        private Entry(String name, byte[] bytecode){
+            this.name = name;
+            this.bytecode = bytecode;
+        }
+    }
+}
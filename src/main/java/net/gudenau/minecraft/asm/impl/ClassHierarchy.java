@@ -0,0 +1,258 @@
+package net.gudenau.minecraft.asm.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Answers class hierarchy questions for ASM from class file headers, without loading anything.
+ *
+ * ASM's default {@link org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String) getCommonSuperClass} loads
+ * both classes, which re-enters the transformer in the middle of a transformation. This reads the super class and
+ * interfaces from the raw bytes on the classpath instead and remembers them. The headers are the ones on disk, Mixin
+ * can add interfaces but it doesn't change super classes.
+ * */
+public class ClassHierarchy{
+    public static final ClassHierarchy INSTANCE = new ClassHierarchy();
+    
+    private static final int MAGIC = 0x47414348; // GACH
+    private static final int VERSION = 1;
+    
+    // Remembered for classes that could not be found so we don't keep looking for them
+    private static final Entry MISSING = new Entry(0, null, new String[0]);
+    
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile ClassLoader classLoader;
+    private volatile boolean dirty = false;
+    
+    private ClassHierarchy(){}
+    
+    void setClassLoader(ClassLoader classLoader){
+        this.classLoader = classLoader;
+    }
+    
+    /**
+     * Finds the closest common super class of two classes the way ASM does.
+     *
+     * @param type1 The internal name of the first class
+     * @param type2 The internal name of the second class
+     *
+     * @return The common super class, or empty if part of the hierarchy could not be read
+     * */
+    public Optional<String> getCommonSuperClass(String type1, String type2){
+        Boolean assignable = isAssignableFrom(type1, type2);
+        if(assignable == null){
+            return Optional.empty();
+        }
+        if(assignable){
+            return Optional.of(type1);
+        }
+        assignable = isAssignableFrom(type2, type1);
+        if(assignable == null){
+            return Optional.empty();
+        }
+        if(assignable){
+            return Optional.of(type2);
+        }
+        
+        Entry entry1 = get(type1);
+        Entry entry2 = get(type2);
+        if(entry1 == MISSING || entry2 == MISSING){
+            return Optional.empty();
+        }
+        if(entry1.isInterface() || entry2.isInterface()){
+            return Optional.of("java/lang/Object");
+        }
+        
+        String type = type1;
+        do{
+            Entry entry = get(type);
+            if(entry == MISSING){
+                return Optional.empty();
+            }
+            type = entry.superName;
+            if(type == null){
+                return Optional.of("java/lang/Object");
+            }
+            assignable = isAssignableFrom(type, type2);
+            if(assignable == null){
+                return Optional.empty();
+            }
+        }while(!assignable);
+        return Optional.of(type);
+    }
+    
+    /**
+     * Checks if a class is the same as or a super type of another.
+     *
+     * @return The result or null if part of the hierarchy could not be read
+     * */
+    private Boolean isAssignableFrom(String type, String subType){
+        if(type.equals("java/lang/Object")){
+            return true;
+        }
+        
+        Set<String> seen = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(subType);
+        while(!queue.isEmpty()){
+            String current = queue.poll();
+            if(current.equals(type)){
+                return true;
+            }
+            if(!seen.add(current)){
+                continue;
+            }
+            
+            Entry entry = get(current);
+            if(entry == MISSING){
+                return null;
+            }
+            if(entry.superName != null){
+                queue.add(entry.superName);
+            }
+            for(String iface : entry.interfaces){
+                queue.add(iface);
+            }
+        }
+        return false;
+    }
+    
+    private Entry get(String name){
+        Entry entry = entries.get(name);
+        if(entry == null){
+            // Reading happens outside of the map, two threads reading the same class is harmless
+            entry = read(name);
+            Entry existing = entries.putIfAbsent(name, entry);
+            if(existing != null){
+                entry = existing;
+            }else if(entry != MISSING){
+                dirty = true;
+            }
+        }
+        return entry;
+    }
+    
+    private Entry read(String name){
+        ClassLoader classLoader = this.classLoader;
+        if(classLoader == null){
+            return MISSING;
+        }
+        try(InputStream stream = classLoader.getResourceAsStream(name + ".class")){
+            if(stream == null){
+                return MISSING;
+            }
+            ClassReader reader = new ClassReader(stream);
+            return new Entry(reader.getAccess(), reader.getSuperName(), reader.getInterfaces());
+        }catch(IOException | RuntimeException ignored){
+            // Includes class versions ASM doesn't know
+            return MISSING;
+        }
+    }
+    
+    /**
+     * Loads the hierarchy a previous run saved, it gets ignored if the fingerprint doesn't match.
+     *
+     * @param path The file to load from
+     * @param fingerprint The current fingerprint
+     * */
+    public void load(Path path, Fingerprint fingerprint) throws IOException{
+        if(!Files.exists(path)){
+            return;
+        }
+        
+        try(DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))){
+            if(
+                stream.readInt() != MAGIC ||
+                stream.readInt() != VERSION ||
+                stream.readLong() != fingerprint.getHigh() ||
+                stream.readLong() != fingerprint.getLow()
+            ){
+                return;
+            }
+            
+            int count = stream.readInt();
+            for(int i = 0; i < count; i++){
+                String name = stream.readUTF();
+                int access = stream.readInt();
+                String superName = stream.readUTF();
+                String[] interfaces = new String[stream.readUnsignedShort()];
+                for(int j = 0; j < interfaces.length; j++){
+                    interfaces[j] = stream.readUTF();
+                }
+                entries.putIfAbsent(name, new Entry(access, superName.isEmpty() ? null : superName, interfaces));
+            }
+        }
+    }
+    
+    /**
+     * Saves the hierarchy if anything new was read.
+     *
+     * @param path The file to save to
+     * @param fingerprint The current fingerprint
+     * */
+    public void save(Path path, Fingerprint fingerprint) throws IOException{
+        if(!dirty){
+            return;
+        }
+        dirty = false;
+        
+        Files.createDirectories(path.getParent());
+        // Unique so instances sharing the directory don't write into each other's file
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try(DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))){
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeLong(fingerprint.getHigh());
+            stream.writeLong(fingerprint.getLow());
+            
+            // Missing classes are left out, they might show up later
+            Map<String, Entry> entries = new HashMap<>(this.entries);
+            entries.values().removeIf((entry)->entry == MISSING);
+            stream.writeInt(entries.size());
+            for(Map.Entry<String, Entry> entry : entries.entrySet()){
+                Entry value = entry.getValue();
+                stream.writeUTF(entry.getKey());
+                stream.writeInt(value.access);
+                stream.writeUTF(value.superName == null ? "" : value.superName);
+                stream.writeShort(value.interfaces.length);
+                for(String iface : value.interfaces){
+                    stream.writeUTF(iface);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static final class Entry{
+        private final int access;
+        private final String superName;
+        private final String[] interfaces;
+        
+        private Entry(int access, String superName, String[] interfaces){
+            this.access = access;
+            this.superName = superName;
+            this.interfaces = interfaces;
+        }
+        
+        private boolean isInterface(){
+            return (access & Opcodes.ACC_INTERFACE) != 0;
+        }
+    }
+}
@@ -31,17 +31,55 @@ public class Configuration{
      * */
     public static final Value<Boolean> ENABLE_CACHE = new BooleanValue("cacheEnable", true);
     
+    /**
+     * Where the cache is kept, relative to the game directory. Point several instances of the same pack at the same
+     * directory to share one cache between them.
+     * */
+    public static final Value<String> CACHE_DIRECTORY = new StringValue("cacheDirectory", "gudASMCache");
+    
+    /**
+     * The size in MiB the cache gets trimmed to, the least recently used classes go first.
+     * */
+    public static final Value<Integer> CACHE_MAX_SIZE = new IntValue("cacheMaxSize", 1024);
+    
+    /**
+     * How many boots a cached class is kept without being loaded.
+     * */
+    public static final Value<Integer> CACHE_MAX_AGE = new IntValue("cacheMaxAge", 10);
+    
+    /**
+     * How cached classes are stored.
+     * */
+    public static final Value<Compression> CACHE_COMPRESSION = new EnumValue<>("cacheCompression", Compression.NONE);
+    
     /**
      * The class dumping mode for debugging.
      * */
     public static final Value<DumpMode> DUMP = new EnumValue<>("dump", DumpMode.OFF);
     
+    /**
+     * What to do with dumped classes when the dump writer can't keep up.
+     * */
+    public static final Value<DumpOverflow> DUMP_OVERFLOW = new EnumValue<>("dumpOverflow", DumpOverflow.BLOCK);
+    
+    /**
+     * Passes one ClassNode through the early transformers, Mixin and the late transformers instead of writing and
+     * parsing the class between each step.
+     * */
+    public static final Value<Boolean> TREE_PIPELINE = new BooleanValue("treePipeline", true);
+    
     private static final Map<String, Value<?>> VALUES;
     static{
         Map<String, Value<?>> values = new Object2ObjectOpenHashMap<>();
         values.put(ENABLED_CACHE.getName(), ENABLED_CACHE);
         values.put(ENABLE_CACHE.getName(), ENABLE_CACHE);
+        values.put(CACHE_DIRECTORY.getName(), CACHE_DIRECTORY);
+        values.put(CACHE_MAX_SIZE.getName(), CACHE_MAX_SIZE);
+        values.put(CACHE_MAX_AGE.getName(), CACHE_MAX_AGE);
+        values.put(CACHE_COMPRESSION.getName(), CACHE_COMPRESSION);
         values.put(DUMP.getName(), DUMP);
+        values.put(DUMP_OVERFLOW.getName(), DUMP_OVERFLOW);
+        values.put(TREE_PIPELINE.getName(), TREE_PIPELINE);
         VALUES = Collections.unmodifiableMap(values);
         
         Runtime.getRuntime().addShutdownHook(new Thread(()->{
@@ -53,6 +91,24 @@ public class Configuration{
         }, "gudASM Config Saver"));
     }
     
+    /**
+     * The cache compression mode.
+     * */
+    public enum Compression{
+        /**
+         * Store classes as they are, hits are served straight from the mapped cache.
+         * */
+        NONE,
+        /**
+         * Compress classes quickly.
+         * */
+        SPEED,
+        /**
+         * Compress classes as small as possible, takes longer to write but not to read.
+         * */
+        SIZE
+    }
+    
     /**
      * The dump mode.
      * */
@@ -71,6 +127,30 @@ public class Configuration{
         FORCE
     }
     
+    /**
+     * The dump overflow mode.
+     * */
+    public enum DumpOverflow{
+        /**
+         * Wait for the writer, slows down class loading.
+         * */
+        BLOCK,
+        /**
+         * Leave the class out of the dump.
+         * */
+        DROP
+    }
+    
+    /**
+     * Gets the directory the cache is kept in.
+     *
+     * @return The cache directory
+     * */
+    public static Path getCacheDirectory(){
+        // The baker writes straight into its output
+        return CacheBaker.getOutput().orElseGet(()->FabricLoader.getInstance().getGameDir().resolve(CACHE_DIRECTORY.get()));
+    }
+    
     /**
      * Load the config from disk.
      * */
@@ -139,7 +219,8 @@ public class Configuration{
             String key = value.getName();
             keys.add(key);
             Object valueValue = value.get();
-            options.put(key, valueValue == null ? "" : String.valueOf(valueValue).toLowerCase());
+            // Only enums get lowercased, strings like paths have to stay as they are
+            options.put(key, valueValue == null ? "" : valueValue instanceof Enum ? String.valueOf(valueValue).toLowerCase() : String.valueOf(valueValue));
             shouldSave |= value.isDirty();
             value.clean();
         }
@@ -229,6 +310,25 @@ public class Configuration{
         }
     }
     
+    private static class StringValue extends Value<String>{
+        StringValue(String name, String defaultValue){
+            super(name, defaultValue, (value)->value.isEmpty() ? null : value);
+        }
+    }
+    
+    private static class IntValue extends Value<Integer>{
+        IntValue(String name, int defaultValue){
+            super(name, defaultValue, (value)->{
+                try{
+                    int parsed = Integer.parseInt(value.trim());
+                    return parsed > 0 ? parsed : null;
+                }catch(NumberFormatException ignored){
+                    return null;
+                }
+            });
+        }
+    }
+    
     private static class BooleanValue extends Value<Boolean>{
         BooleanValue(String name, boolean defaultValue){
             super(name, defaultValue, Boolean::valueOf);
@@ -0,0 +1,198 @@
+package net.gudenau.minecraft.asm.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+import net.fabricmc.loader.api.metadata.ModMetadata;
+import net.gudenau.minecraft.asm.api.v1.BaseTransformer;
+import net.gudenau.minecraft.asm.api.v1.Identifier;
+import net.gudenau.minecraft.asm.util.Murmur3;
+
+/**
+ * A hash of everything that can change the output of the transformer pipeline.
+ *
+ * This covers the registered transformers and their versions, the loaded mods and their versions (and with them every
+ * Mixin config), the environment and the configuration.
+ *
+ * Caches that store every stage of the pipeline on its own only get the environment fingerprint, each stage adds the
+ * seeds of whatever it depends on to its keys instead. An update to one transformer then only misses the stage it runs
+ * in, the stale entries of the others age out of the cache.
+ * */
+public final class Fingerprint{
+    // Internal, so it's looked up reflectively. Without it every mod counts as having Mixin configs.
+    private static final Method LoaderModMetadata$getMixinConfigs = findGetMixinConfigs();
+    
+    private final long high;
+    private final long low;
+    
+    private Fingerprint(long high, long low){
+        this.high = high;
+        this.low = low;
+    }
+    
+    /**
+     * Computes the fingerprint of the current environment, the registry has to be frozen.
+     *
+     * @return The fingerprint
+     * */
+    public static Fingerprint compute(){
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try(DataOutputStream stream = new DataOutputStream(buffer)){
+            RegistryImpl registry = RegistryImpl.INSTANCE;
+            writeTransformers(stream, registry.getEarlyTransformers());
+            writeTransformers(stream, registry.getTransformers());
+            
+            FabricLoader loader = FabricLoader.getInstance();
+            List<ModMetadata> mods = new ArrayList<>();
+            for(ModContainer mod : loader.getAllMods()){
+                mods.add(mod.getMetadata());
+            }
+            mods.sort(Comparator.comparing(ModMetadata::getId));
+            stream.writeInt(mods.size());
+            for(ModMetadata mod : mods){
+                stream.writeUTF(mod.getId());
+                stream.writeUTF(mod.getVersion().getFriendlyString());
+            }
+            
+            stream.writeUTF(loader.getEnvironmentType().name());
+            stream.writeUTF(Configuration.DUMP.get().name());
+        }catch(IOException e){
+            // ByteArrayOutputStream doesn't throw
+            throw new RuntimeException("Failed to compute fingerprint", e);
+        }
+        
+        long[] hash = Murmur3.hash128(buffer.toByteArray(), 0);
+        return new Fingerprint(hash[0], hash[1]);
+    }
+    
+    /**
+     * Computes the fingerprint of the things every stage depends on, the environment and the configuration.
+     *
+     * @return The fingerprint
+     * */
+    public static Fingerprint computeEnvironment(){
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try(DataOutputStream stream = new DataOutputStream(buffer)){
+            stream.writeUTF(FabricLoader.getInstance().getEnvironmentType().name());
+            stream.writeUTF(Configuration.DUMP.get().name());
+        }catch(IOException e){
+            throw new RuntimeException("Failed to compute fingerprint", e);
+        }
+        
+        long[] hash = Murmur3.hash128(buffer.toByteArray(), 0);
+        return new Fingerprint(hash[0], hash[1]);
+    }
+    
+    /**
+     * Computes the seed of the Mixin stage, it covers every mod and the Mixin configs they bring. Mods without configs
+     * count as well, config plugins often apply mixins depending on which other mods are loaded.
+     *
+     * @return The seed
+     * */
+    public static long computeMixinSeed(){
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try(DataOutputStream stream = new DataOutputStream(buffer)){
+            FabricLoader loader = FabricLoader.getInstance();
+            EnvType environment = loader.getEnvironmentType();
+            List<ModMetadata> mods = new ArrayList<>();
+            for(ModContainer mod : loader.getAllMods()){
+                mods.add(mod.getMetadata());
+            }
+            mods.sort(Comparator.comparing(ModMetadata::getId));
+            stream.writeInt(mods.size());
+            for(ModMetadata mod : mods){
+                stream.writeUTF(mod.getId());
+                stream.writeUTF(mod.getVersion().getFriendlyString());
+                Optional<Collection<String>> configs = getMixinConfigs(mod, environment);
+                if(configs.isPresent()){
+                    for(String config : configs.get()){
+                        stream.writeUTF(config);
+                    }
+                }
+            }
+        }catch(IOException e){
+            throw new RuntimeException("Failed to compute fingerprint", e);
+        }
+        
+        long[] hash = Murmur3.hash128(buffer.toByteArray(), 0);
+        return hash[0] ^ hash[1];
+    }
+    
+    /**
+     * Computes the seed a transformer adds to the stage it runs in. It covers the transformer and the version of the mod
+     * its name belongs to.
+     *
+     * @param transformer The transformer
+     *
+     * @return The seed
+     * */
+    public static long computeTransformerSeed(BaseTransformer transformer){
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try(DataOutputStream stream = new DataOutputStream(buffer)){
+            Identifier name = transformer.getName();
+            stream.writeUTF(transformer.getClass().getName());
+            stream.writeUTF(String.valueOf(name));
+            stream.writeInt(transformer.getVersion());
+            Optional<ModContainer> mod = name == null ? Optional.empty() : FabricLoader.getInstance().getModContainer(name.getModId());
+            stream.writeUTF(mod.map((container)->container.getMetadata().getVersion().getFriendlyString()).orElse(""));
+        }catch(IOException e){
+            throw new RuntimeException("Failed to compute fingerprint", e);
+        }
+        
+        long[] hash = Murmur3.hash128(buffer.toByteArray(), 0);
+        return hash[0] ^ hash[1];
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Optional<Collection<String>> getMixinConfigs(ModMetadata metadata, EnvType environment){
+        if(LoaderModMetadata$getMixinConfigs == null || !LoaderModMetadata$getMixinConfigs.getDeclaringClass().isInstance(metadata)){
+            return Optional.empty();
+        }
+        try{
+            return Optional.of((Collection<String>)LoaderModMetadata$getMixinConfigs.invoke(metadata, environment));
+        }catch(ReflectiveOperationException e){
+            return Optional.empty();
+        }
+    }
+    
+    private static Method findGetMixinConfigs(){
+        try{
+            return Class.forName("net.fabricmc.loader.metadata.LoaderModMetadata", false, FabricLoader.class.getClassLoader())
+                .getMethod("getMixinConfigs", EnvType.class);
+        }catch(ReflectiveOperationException e){
+            return null;
+        }
+    }
+    
+    private static void writeTransformers(DataOutputStream stream, List<BaseTransformer> transformers) throws IOException{
+        // Order matters, the same transformers in a different order can produce different classes
+        stream.writeInt(transformers.size());
+        for(BaseTransformer transformer : transformers){
+            stream.writeUTF(transformer.getClass().getName());
+            stream.writeUTF(String.valueOf(transformer.getName()));
+            stream.writeInt(transformer.getVersion());
+        }
+    }
+    
+    public long getHigh(){
+        return high;
+    }
+    
+    public long getLow(){
+        return low;
+    }
+    
+    @Override
+    public String toString(){
+        return String.format("%016x%016x", high, low);
+    }
+}
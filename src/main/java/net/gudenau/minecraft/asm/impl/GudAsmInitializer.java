@@ -0,0 +1,32 @@
+package net.gudenau.minecraft.asm.impl;
+
+import java.util.zip.Deflater;
+import net.gudenau.minecraft.asm.api.v1.AsmInitializer;
+import net.gudenau.minecraft.asm.api.v1.AsmRegistry;
+import net.gudenau.minecraft.asm.impl.cache.MappedClassCache;
+
+/**
+ * Registers the things gudASM provides out of the box.
+ * */
+public class GudAsmInitializer implements AsmInitializer{
+    @Override
+    public void onInitializeAsm(){
+        AsmRegistry.getInstance().registerClassCache(new MappedClassCache(
+            Configuration.getCacheDirectory(),
+            Configuration.CACHE_MAX_SIZE.get() * 1024L * 1024L,
+            Configuration.CACHE_MAX_AGE.get(),
+            getCompressionLevel()
+        ));
+    }
+    
+    private static int getCompressionLevel(){
+        switch(Configuration.CACHE_COMPRESSION.get()){
+            case SPEED:
+                return Deflater.BEST_SPEED;
+            case SIZE:
+                return Deflater.BEST_COMPRESSION;
+            default:
+                return Deflater.NO_COMPRESSION;
+        }
+    }
+}
@@ -1,32 +1,37 @@
 package net.gudenau.minecraft.asm.impl;
 
-import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.invoke.MethodHandle;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import net.fabricmc.loader.api.FabricLoader;
 import net.gudenau.minecraft.asm.api.v1.AsmUtils;
+import net.gudenau.minecraft.asm.api.v1.BaseTransformer;
 import net.gudenau.minecraft.asm.api.v1.ClassCache;
+import net.gudenau.minecraft.asm.api.v1.ClassHash;
+import net.gudenau.minecraft.asm.api.v1.HashedClassCache;
 import net.gudenau.minecraft.asm.api.v1.Transformer;
-import net.gudenau.minecraft.asm.util.Locker;
+import net.gudenau.minecraft.asm.impl.cache.UnchangedClasses;
+import net.gudenau.minecraft.asm.util.ConstantPool;
+import net.gudenau.minecraft.asm.util.Murmur3;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
+import org.spongepowered.asm.mixin.MixinEnvironment;
+import org.spongepowered.asm.mixin.transformer.ClassInfo;
 import org.spongepowered.asm.mixin.transformer.FabricMixinTransformerProxy;
 import org.spongepowered.asm.mixin.transformer.IMixinTransformer;
 
@@ -35,14 +40,7 @@ import org.spongepowered.asm.mixin.transformer.IMixinTransformer;
  * */
 public class MixinTransformer extends FabricMixinTransformerProxy{
     private static final Type ANNOTATION_FORCE_BOOTLOADER = Type.getObjectType("net/gudenau/minecraft/asm/api/v0/annotation/ForceBootloader");
-    
-    private static final Set<String> BLACKLIST = new HashSet<>(Arrays.asList(
-        "net.gudenau.minecraft.asm.",
-        "org.objectweb.asm.",
-        "com.google.gson.",
-        "org.lwjgl.",
-        "it.unimi.dsi.fastutil."
-    ));
+    private static final byte[] ANNOTATION_FORCE_BOOTLOADER_UTF8 = ConstantPool.utf8(ANNOTATION_FORCE_BOOTLOADER.getDescriptor());
     
     private static final Transformer BOOTSTRAP_TRANSFORMER = new BootstrapTransformer();
     
@@ -63,152 +61,210 @@ public class MixinTransformer extends FabricMixinTransformerProxy{
         }
     }
     
+    private static final DateTimeFormatter DUMP_NAME = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH.mm.ss");
+    
     private static ClassLoader classLoader;
     
     public static void setClassLoader(ClassLoader classLoader){
         MixinTransformer.classLoader = classLoader;
+        ClassHierarchy.INSTANCE.setClassLoader(classLoader);
     }
     
-    private final Set<String> seenClasses = new HashSet<>();
-    private final Locker seenClassesLocker = new Locker();
+    // Class loading is parallel, a single atomic add decides who handles a class without any locks
+    private final Set<String> seenClasses = ConcurrentHashMap.newKeySet();
     
     private final IMixinTransformer parent;
-    private final List<Transformer> transformers;
-    private final List<Transformer> earlyTransformers;
+    private volatile TransformerIndex index;
     
     private final boolean forceDump = Configuration.DUMP.get() == Configuration.DumpMode.FORCE;
     private final boolean dump = Configuration.DUMP.get() == Configuration.DumpMode.ON || forceDump;
+    private final ClassDumper dumper = new ClassDumper(
+        FabricLoader.getInstance().getGameDir().resolve("gudASMDump").resolve(LocalDateTime.now().format(DUMP_NAME) + ".jar"),
+        Configuration.DUMP_OVERFLOW.get() == Configuration.DumpOverflow.BLOCK
+    );
+    private final boolean treePipeline = Configuration.TREE_PIPELINE.get();
     
     MixinTransformer(IMixinTransformer parent){
         this.parent = parent;
-        transformers = RegistryImpl.INSTANCE.getTransformers();
-        earlyTransformers = RegistryImpl.INSTANCE.getEarlyTransformers();
+        index = RegistryImpl.INSTANCE.getIndex();
     }
     
     @Override
     public byte[] transformClassBytes(String name, String transformedName, byte[] basicClass){
-        if(seenClassesLocker.readLock(()->seenClasses.contains(name))){
+        if(seenClasses.contains(name)){
             return basicClass;
         }
-        if(seenClassesLocker.writeLock(()->{
-            if(seenClasses.contains(name)){
-                return true;
-            }else{
-                seenClasses.add(name);
-                return false;
-            }
-        })){
+        if(!seenClasses.add(name)){
+            // Another thread got to the class first, Mixin still gets to see this copy
             return parent.transformClassBytes(name, transformedName, basicClass);
         }
         
-        for(String prefix : BLACKLIST){
-            if(name.startsWith(prefix)){
-                byte[] transformedClass = parent.transformClassBytes(name, transformedName, basicClass);
-                if(forceDump){
-                    dump(name, basicClass);
-                }
-                return bootstrap(cache(basicClass, ()->transformedClass));
+        TransformerIndex.Match match = index.match(name, transformedName, basicClass);
+        if(match.isBlacklisted()){
+            if(forceDump){
+                dump(name, basicClass);
             }
+            // Bootstrapped classes come out as null and never get cached, so a hit never needs another check
+            return cache(basicClass, true, ()->bootstrap(parent.transformClassBytes(name, transformedName, basicClass)));
         }
-        return cache(basicClass, ()->{
-            if(basicClass == null){
-                return parent.transformClassBytes(name, transformedName, basicClass);
+        return transformClass(name, transformedName, basicClass, match);
+    }
+    
+    /**
+     * Transforms a class that is not blacklisted, through the cache if there is one.
+     * */
+    byte[] transformClass(String name, String transformedName, byte[] basicClass, TransformerIndex.Match match){
+        return cache(basicClass, false, ()->transformUncached(name, transformedName, basicClass, match));
+    }
+    
+    /**
+     * Runs the whole pipeline on a class that is not blacklisted.
+     * */
+    byte[] transformUncached(String name, String transformedName, byte[] basicClass, TransformerIndex.Match match){
+        if(basicClass == null){
+            return parent.transformClassBytes(name, transformedName, basicClass);
+        }
+        
+        boolean shouldBootstrap = shouldBootstrap(basicClass);
+        AtomicBoolean modified = new AtomicBoolean(forceDump);
+        
+        List<BaseTransformer> earlyTransformers = match.getEarlyTransformers();
+        // Late transformers see the class after Mixin, the references they target are checked against that
+        Function<byte[], List<BaseTransformer>> lateTransformers = (mixedClass)->{
+            List<BaseTransformer> transformers = match.getTransformers(mixedClass);
+            if(shouldBootstrap && BOOTSTRAP_TRANSFORMER.handlesClass(name, transformedName)){
+                transformers = new ArrayList<>(transformers);
+                transformers.add(BOOTSTRAP_TRANSFORMER);
             }
-            
-            boolean shouldBootstrap = shouldBootstrap(basicClass);
-            AtomicBoolean modified = new AtomicBoolean(forceDump);
-            
-            byte[] bytecode = basicClass;
+            return transformers;
+        };
+        
+        byte[] bytecode = basicClass;
+        List<BaseTransformer> transformers = lateTransformers.apply(bytecode);
+        if(earlyTransformers.isEmpty() && transformers.isEmpty()){
+            // Nothing of ours to run, Mixin can handle it alone unless it adds something a late transformer looks for
+            bytecode = parent.transformClassBytes(name, transformedName, bytecode);
+            if(bytecode != basicClass){
+                transformers = lateTransformers.apply(bytecode);
+                if(!transformers.isEmpty()){
+                    bytecode = transform(bytecode, transformers, modified);
+                }
+            }
+        }else if(treePipeline && transformedName != null){
+            bytecode = transformTree(transformedName, bytecode, earlyTransformers, lateTransformers, modified);
+        }else{
             if(!earlyTransformers.isEmpty()){
-                bytecode = transform(name, transformedName, bytecode, earlyTransformers, modified);
+                bytecode = transform(bytecode, earlyTransformers, modified);
             }
             
             bytecode = parent.transformClassBytes(name, transformedName, bytecode);
-    
-            //FIXME, this is stupid
-            List<Transformer> transformers = this.transformers;
-            if(shouldBootstrap){
-                List<Transformer> newList = new ArrayList<>(this.transformers);
-                newList.add(BOOTSTRAP_TRANSFORMER);
-                transformers = newList;
-            }
-            if(!transformers.isEmpty()){
-                bytecode = transform(name, transformedName, bytecode, transformers, modified);
-            }
             
-            if(dump && modified.get()){
-                dump(name, bytecode);
+            transformers = lateTransformers.apply(bytecode);
+            if(!transformers.isEmpty()){
+                bytecode = transform(bytecode, transformers, modified);
             }
-            
-            return bootstrap(bytecode, shouldBootstrap);
-        });
+        }
+        
+        if(dump && modified.get()){
+            dump(name, bytecode);
+        }
+        
+        return bootstrap(bytecode, shouldBootstrap);
     }
     
-    private static final ExecutorService DUMP_SERVICE = Executors.newFixedThreadPool(1);
-    static{
-        Runtime.getRuntime().addShutdownHook(new Thread(()->{
-            DUMP_SERVICE.shutdown();
-            try{
-                DUMP_SERVICE.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-            }catch(InterruptedException ignored){}
-        }, "gudASM Dumper Service Cleanup"));
-    }
     private void dump(String name, byte[] bytecode){
-        DUMP_SERVICE.submit(()->{
-            Path path = FabricLoader.getInstance().getGameDir().resolve("gudASMDump");
-            String[] split = name.split("\\.");
-            for(int i = 0; i < split.length - 1; i++){
-                String s = split[i];
-                path = path.resolve(s);
-            }
-            if(!Files.exists(path)){
-                try{
-                    Files.createDirectories(path);
-                }catch(IOException ignored){}
-            }
-            path = path.resolve(split[split.length - 1] + ".class");
-            try(OutputStream stream = Files.newOutputStream(path, StandardOpenOption.CREATE)){
-                stream.write(bytecode);
-            }catch(IOException ignored){}
-        });
+        dumper.dump(name, bytecode);
     }
     
-    private byte[] transform(String name, String transformedName, byte[] bytecode, List<Transformer> transformers, AtomicBoolean parentModifier){
-        List<Transformer> validTransformers = new ArrayList<>();
-        for(Transformer transformer : transformers){
-            if(transformer.handlesClass(name, transformedName)){
-                validTransformers.add(transformer);
-            }
+    /**
+     * Runs the early transformers, Mixin and the late transformers on a single ClassNode, the class is only parsed and
+     * written once.
+     * */
+    private byte[] transformTree(String transformedName, byte[] bytecode, List<BaseTransformer> earlyTransformers, Function<byte[], List<BaseTransformer>> lateTransformers, AtomicBoolean parentModifier){
+        // Mixin expects expanded frames, it reads classes the same way
+        TransformerPass pass = new TransformerPass(bytecode, ClassReader.EXPAND_FRAMES);
+        TransformerFlagsImpl flags = pass.getFlags();
+        
+        pass.run(earlyTransformers, true);
+        boolean mixed = parent.transformClass(MixinEnvironment.getCurrentEnvironment(), transformedName, pass.getClassNode());
+        if(mixed){
+            pass.markMixed();
         }
+        // A changed tree has no constant pool to check references against
+        pass.run(lateTransformers.apply(flags.isModified() || mixed ? null : bytecode), false);
         
-        if(validTransformers.isEmpty()){
+        if(!flags.isModified() && !mixed){
             return bytecode;
         }
-        
-        ClassNode classNode = new ClassNode();
-        new ClassReader(bytecode).accept(classNode, 0);
-        boolean modified = false;
-        TransformerFlagsImpl flags = new TransformerFlagsImpl();
-        for(Transformer transformer : validTransformers){
-            modified |= transformer.transform(classNode, flags);
+        if(flags.isModified()){
+            parentModifier.set(true);
         }
-        if(!modified){
+        return pass.toByteArray();
+    }
+    
+    private byte[] transform(byte[] bytecode, List<BaseTransformer> transformers, AtomicBoolean parentModifier){
+        TransformerPass pass = new TransformerPass(bytecode, 0);
+        pass.run(transformers, false);
+        if(!pass.getFlags().isModified()){
             return bytecode;
         }
-        
-        ClassWriter writer = new ClassWriter(flags.getClassWriterFlags()){
+        parentModifier.set(true);
+        return pass.toByteArray();
+    }
+    
+    /**
+     * Creates a writer that resolves common super classes without loading classes.
+     *
+     * @param reader The reader to copy the constant pool and unchanged methods from, or null
+     * @param flags The ClassWriter flags
+     * @param mixed True if Mixin changed the class, Mixin's view of the hierarchy is used first in that case
+     *
+     * @return The writer
+     * */
+    static ClassWriter createWriter(ClassReader reader, int flags, boolean mixed){
+        return new ClassWriter(reader, flags){
             // Fixes an issue with stack calculations
             @Override
             protected ClassLoader getClassLoader(){
                 return classLoader;
             }
+            
+            // Loading classes here would re-enter the transformer, read the class files instead when possible
+            @Override
+            protected String getCommonSuperClass(String type1, String type2){
+                if(mixed){
+                    // Our hierarchy is read from the original class files and misses the interfaces Mixin added, Mixin's
+                    // own writer asks ClassInfo as well
+                    try{
+                        ClassInfo superClass = ClassInfo.getCommonSuperClass(type1, type2);
+                        if(superClass != null){
+                            return superClass.getName();
+                        }
+                    }catch(RuntimeException ignored){
+                        // ClassInfo throws for classes it can't find, the other lookups get a chance at those
+                    }
+                }
+                
+                Optional<String> superClass = ClassHierarchy.INSTANCE.getCommonSuperClass(type1, type2);
+                if(superClass.isPresent()){
+                    return superClass.get();
+                }
+                return super.getCommonSuperClass(type1, type2);
+            }
         };
-        classNode.accept(writer);
-        parentModifier.set(true);
-        return writer.toByteArray();
     }
     
-    byte[] cache(byte[] original, Supplier<byte[]> transformed){
+    /**
+     * Looks a class up in the cache, transforming and caching it on a miss.
+     *
+     * @param original The original class
+     * @param blacklisted True for blacklisted classes, they never wait for the cache to load because the loader might
+     *                    need them
+     * @param transformed Transforms the class
+     *
+     * @return The transformed class
+     * */
+    byte[] cache(byte[] original, boolean blacklisted, Supplier<byte[]> transformed){
         return transformed.get();
     }
     
@@ -216,7 +272,12 @@ public class MixinTransformer extends FabricMixinTransformerProxy{
         if(bytecode == null){
             return false;
         }
-    
+        
+        // Almost no class has the annotation, only parse the ones that might
+        if(!ConstantPool.containsUtf8(bytecode, ANNOTATION_FORCE_BOOTLOADER_UTF8)){
+            return false;
+        }
+        
         ClassNode classNode = new ClassNode();
         new ClassReader(bytecode).accept(classNode, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
         return AsmUtils.hasAnnotation(classNode, ANNOTATION_FORCE_BOOTLOADER);
@@ -254,33 +315,233 @@ public class MixinTransformer extends FabricMixinTransformerProxy{
     }
     
     public void blacklistPackage(String name){
-        BLACKLIST.add(name);
+        index = index.withBlacklisted(name);
     }
     
+    /**
+     * Caches transformed classes.
+     *
+     * Caches that take our hashes store every stage of the pipeline on its own, the early transformers, Mixin and the late
+     * transformers. Each stage is keyed by a hash of its input seeded with whatever the stage depends on, the matched
+     * transformers for the transformer stages and every mod and Mixin config for Mixin. Changing one of them only misses
+     * the stages it is part of, the rest still come from the cache. Classes no stage changes never get stored.
+     *
+     * Other caches store whole classes and get the fingerprint of everything.
+     * */
     static class Cache extends MixinTransformer{
+        private static final int STAGE_EARLY = 1;
+        private static final int STAGE_MIXIN = 2;
+        private static final int STAGE_LATE = 3;
+        
         private final ClassCache cache;
+        // The same cache when it can take our hashes, null otherwise
+        private final HashedClassCache hashedCache;
+        private final long seed;
+        private final long mixinSeed;
+        private final Map<BaseTransformer, Long> transformerSeeds = new ConcurrentHashMap<>();
+        private final UnchangedClasses unchanged;
+        // Loaded on their own, a lookup only waits for the one it needs
+        private final CompletableFuture<Boolean> loaded;
+        private final CompletableFuture<?> unchangedLoaded;
     
-        Cache(IMixinTransformer parent, ClassCache cache){
+        Cache(IMixinTransformer parent, ClassCache cache, long seed, UnchangedClasses unchanged, CompletableFuture<Boolean> loaded, CompletableFuture<?> unchangedLoaded){
             super(parent);
             this.cache = cache;
+            hashedCache = cache instanceof HashedClassCache ? (HashedClassCache)cache : null;
+            this.seed = seed;
+            mixinSeed = hashedCache == null ? seed : getStageSeed(STAGE_MIXIN, Fingerprint.computeMixinSeed());
+            this.unchanged = unchanged;
+            this.loaded = loaded;
+            this.unchangedLoaded = unchangedLoaded;
         }
         
         @Override
-        byte[] cache(byte[] original, Supplier<byte[]> transformer){
+        byte[] cache(byte[] original, boolean blacklisted, Supplier<byte[]> transformer){
             if(original == null){
                 return transformer.get();
             }
+            if(blacklisted && !(loaded.isDone() && unchangedLoaded.isDone())){
+                return transformer.get();
+            }
+            
+            // Hashed once, everything after this only looks at the hash. With stages only blacklisted classes get here,
+            // those only go through Mixin.
+            ClassHash hash = ClassHash.of(original, mixinSeed);
+            
+            // Most classes come out untouched, there is no need to parse or store those
+            unchangedLoaded.join();
+            if(unchanged.contains(hash)){
+                return original;
+            }
+            if(!loaded.join()){
+                return transformer.get();
+            }
             
-            Optional<byte[]> result = cache.getEntry(original);
+            Optional<byte[]> result = hashedCache != null ? hashedCache.getEntry(hash).map(Cache::toArray) : cache.getEntry(original);
             if(result.isPresent()){
                 return result.get();
             }else{
                 byte[] transformed = transformer.get();
-                if(transformed != null){
-                    cache.putEntry(original, transformed);
+                if(transformed == original || Arrays.equals(transformed, original)){
+                    unchanged.add(hash);
+                }else if(transformed != null){
+                    if(hashedCache != null){
+                        hashedCache.putEntry(hash, ByteBuffer.wrap(transformed));
+                    }else{
+                        cache.putEntry(original, transformed);
+                    }
                 }
                 return transformed;
             }
         }
+        
+        @Override
+        byte[] transformClass(String name, String transformedName, byte[] basicClass, TransformerIndex.Match match){
+            if(hashedCache == null || basicClass == null){
+                return super.transformClass(name, transformedName, basicClass, match);
+            }
+            
+            List<BaseTransformer> earlyTransformers = match.getEarlyTransformers();
+            AtomicBoolean modified = new AtomicBoolean(super.forceDump);
+            // Classes that go into the bootstrap class loader never get stored, a hit rules them out as well
+            boolean checked = false;
+            
+            byte[] bytecode = basicClass;
+            // The class as a tree while the stages that ran left it as it was
+            TransformerPass pass = null;
+            
+            if(!earlyTransformers.isEmpty()){
+                ClassHash key = ClassHash.of(bytecode, getStageSeed(STAGE_EARLY, earlyTransformers));
+                byte[] cached = getStage(key, bytecode);
+                if(cached != null){
+                    bytecode = cached;
+                    checked = true;
+                }else{
+                    if(super.shouldBootstrap(basicClass)){
+                        return transformUncached(name, transformedName, basicClass, match);
+                    }
+                    checked = true;
+                    // Mixin expects expanded frames, it reads classes the same way
+                    pass = new TransformerPass(bytecode, ClassReader.EXPAND_FRAMES);
+                    pass.run(earlyTransformers, true);
+                    if(pass.getFlags().isModified()){
+                        modified.set(true);
+                        byte[] transformed = pass.toByteArray();
+                        putStage(key, bytecode, transformed);
+                        bytecode = transformed;
+                        pass = null;
+                    }else{
+                        putStage(key, bytecode, bytecode);
+                    }
+                }
+            }
+            
+            ClassHash mixinKey = ClassHash.of(bytecode, mixinSeed);
+            byte[] mixinCached = getStage(mixinKey, bytecode);
+            if(mixinCached != null){
+                if(mixinCached != bytecode){
+                    bytecode = mixinCached;
+                    pass = null;
+                }
+                checked = true;
+            }else{
+                if(!checked && super.shouldBootstrap(basicClass)){
+                    return transformUncached(name, transformedName, basicClass, match);
+                }
+                checked = true;
+                byte[] transformed;
+                if(pass != null && super.treePipeline && transformedName != null){
+                    // The early transformers left a tree, no need to have Mixin parse the class again
+                    if(super.parent.transformClass(MixinEnvironment.getCurrentEnvironment(), transformedName, pass.getClassNode())){
+                        pass.markMixed();
+                        transformed = pass.toByteArray();
+                        pass = null;
+                    }else{
+                        transformed = bytecode;
+                    }
+                }else{
+                    transformed = super.parent.transformClassBytes(name, transformedName, bytecode);
+                    pass = null;
+                }
+                putStage(mixinKey, bytecode, transformed);
+                bytecode = transformed;
+            }
+            
+            // Late transformers see the class after Mixin, the references they target are checked against that
+            List<BaseTransformer> transformers = match.getTransformers(bytecode);
+            if(!transformers.isEmpty()){
+                ClassHash key = ClassHash.of(bytecode, getStageSeed(STAGE_LATE, transformers));
+                byte[] cached = getStage(key, bytecode);
+                if(cached != null){
+                    bytecode = cached;
+                }else{
+                    if(!checked && super.shouldBootstrap(basicClass)){
+                        return transformUncached(name, transformedName, basicClass, match);
+                    }
+                    if(pass == null){
+                        pass = new TransformerPass(bytecode, 0);
+                    }
+                    int modifications = pass.getFlags().getModifications();
+                    pass.run(transformers, false);
+                    byte[] transformed = bytecode;
+                    if(pass.getFlags().getModifications() != modifications){
+                        modified.set(true);
+                        transformed = pass.toByteArray();
+                    }
+                    putStage(key, bytecode, transformed);
+                    bytecode = transformed;
+                }
+            }
+            
+            if(super.dump && modified.get()){
+                super.dump(name, bytecode);
+            }
+            return bytecode;
+        }
+        
+        private long getStageSeed(int stage, long stageSeed){
+            return Murmur3.fmix(seed + stage * 0x9E3779B97F4A7C15L + stageSeed);
+        }
+        
+        private long getStageSeed(int stage, List<BaseTransformer> transformers){
+            // Order matters, the same transformers in a different order can produce different classes
+            long stageSeed = stage;
+            for(BaseTransformer transformer : transformers){
+                stageSeed = stageSeed * 31 + transformerSeeds.computeIfAbsent(transformer, Fingerprint::computeTransformerSeed);
+            }
+            return getStageSeed(stage, stageSeed);
+        }
+        
+        /**
+         * Looks the output of a stage up.
+         *
+         * @return The output, the input itself if the stage doesn't change it or null if it is not cached
+         * */
+        private byte[] getStage(ClassHash key, byte[] input){
+            unchangedLoaded.join();
+            if(unchanged.contains(key)){
+                return input;
+            }
+            // A cache that failed to load is not used at all
+            if(!loaded.join()){
+                return null;
+            }
+            return hashedCache.getEntry(key).map(Cache::toArray).orElse(null);
+        }
+        
+        private void putStage(ClassHash key, byte[] input, byte[] output){
+            if(output == input || Arrays.equals(output, input)){
+                unchanged.add(key);
+            }else if(loaded.join()){
+                hashedCache.putEntry(key, ByteBuffer.wrap(output));
+            }
+        }
+        
+        private static byte[] toArray(ByteBuffer buffer){
+            // The only copy a hit costs, defineClass needs an array of its own
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
     }
 }
@@ -1,24 +1,35 @@
 package net.gudenau.minecraft.asm.impl;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import net.gudenau.minecraft.asm.api.v1.BaseTransformer;
 import net.gudenau.minecraft.asm.api.v1.ClassCache;
 import net.gudenau.minecraft.asm.api.v1.AsmRegistry;
 import net.gudenau.minecraft.asm.api.v1.Identifier;
 import net.gudenau.minecraft.asm.api.v1.Transformer;
+import net.gudenau.minecraft.asm.api.v1.VisitorTransformer;
 
 // Basic registry implementation
 public class RegistryImpl implements AsmRegistry{
     public static final RegistryImpl INSTANCE = new RegistryImpl();
     
-    private final List<Transformer> earlyTransformers = new LinkedList<>();
-    private final List<Transformer> transformers = new LinkedList<>();
+    private final List<BaseTransformer> earlyTransformers = new LinkedList<>();
+    private final List<BaseTransformer> transformers = new LinkedList<>();
     private final List<ClassCache> classCaches = new LinkedList<>();
-    private final Set<String> blacklist = new HashSet<>();
+    private final Set<String> blacklist = new HashSet<>(Arrays.asList(
+        "net.gudenau.minecraft.asm.",
+        "org.objectweb.asm.",
+        "com.google.gson.",
+        "org.lwjgl.",
+        "it.unimi.dsi.fastutil."
+    ));
+    
+    private volatile TransformerIndex index;
     
     private volatile Boolean frozen = null;
     
@@ -26,15 +37,25 @@ public class RegistryImpl implements AsmRegistry{
     
     @Override
     public void registerEarlyTransformer(Transformer transformer){
-        if(frozen == null || frozen){
-            throw new RuntimeException("Attempted to register transformer outside initializer");
-        }
-        blacklist.add(transformer.getClass().getPackage().getName());
-        earlyTransformers.add(transformer);
+        register(earlyTransformers, transformer);
+    }
+    
+    @Override
+    public void registerEarlyTransformer(VisitorTransformer transformer){
+        register(earlyTransformers, transformer);
     }
     
     @Override
     public void registerTransformer(Transformer transformer){
+        register(transformers, transformer);
+    }
+    
+    @Override
+    public void registerTransformer(VisitorTransformer transformer){
+        register(transformers, transformer);
+    }
+    
+    private void register(List<BaseTransformer> transformers, BaseTransformer transformer){
         if(frozen == null || frozen){
             throw new RuntimeException("Attempted to register transformer outside initializer");
         }
@@ -83,14 +104,18 @@ public class RegistryImpl implements AsmRegistry{
         return classCaches.stream().map(ClassCache::getName).map(Identifier::toString).collect(Collectors.toList());
     }
     
-    public List<Transformer> getTransformers(){
+    public List<BaseTransformer> getTransformers(){
         return transformers;
     }
     
-    public List<Transformer> getEarlyTransformers(){
+    public List<BaseTransformer> getEarlyTransformers(){
         return earlyTransformers;
     }
     
+    public TransformerIndex getIndex(){
+        return index;
+    }
+    
     @SuppressWarnings("NonAtomicOperationOnVolatileField")
     public void setFrozen(boolean frozen){
         if(this.frozen == null){
@@ -98,11 +123,10 @@ public class RegistryImpl implements AsmRegistry{
         }else{
             this.frozen |= frozen;
         }
-    }
-    
-    public void setTransformer(MixinTransformer transformer){
-        for(String pack : blacklist){
-            transformer.blacklistPackage(pack);
+        
+        // Nothing can be registered anymore, build the lookup structures once.
+        if(this.frozen && index == null){
+            index = new TransformerIndex(earlyTransformers, transformers, blacklist);
         }
     }
 }
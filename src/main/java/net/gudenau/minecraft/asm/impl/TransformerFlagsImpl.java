@@ -1,11 +1,19 @@
 package net.gudenau.minecraft.asm.impl;
 
+import java.util.HashSet;
+import java.util.Set;
+import net.gudenau.minecraft.asm.api.v1.ClassIndex;
 import net.gudenau.minecraft.asm.api.v1.Transformer;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
 
 public class TransformerFlagsImpl implements Transformer.Flags{
     private boolean computeMaxes = false;
     private boolean computeFrames = false;
+    private int modifications = 0;
+    private final Set<String> dirtyMethods = new HashSet<>();
+    private int dirtyMarks = 0;
+    private ClassIndex index;
     
     public void requestMaxes(){
         computeMaxes = true;
@@ -15,6 +23,73 @@ public class TransformerFlagsImpl implements Transformer.Flags{
         computeFrames = true;
     }
     
+    public void markModified(){
+        modifications++;
+        invalidateIndex();
+    }
+    
+    public void markDirty(String name, String descriptor){
+        dirtyMethods.add(name + descriptor);
+        dirtyMarks++;
+        if(index != null){
+            index.invalidate(name, descriptor);
+        }
+    }
+    
+    /**
+     * Records that a tree transformer returned true.
+     *
+     * @param marked True if the transformer marked the methods it changed, the index keeps the graphs of the others
+     * */
+    void markTransformed(boolean marked){
+        modifications++;
+        if(!marked){
+            invalidateIndex();
+        }
+    }
+    
+    public ClassIndex getIndex(){
+        if(index == null){
+            throw new IllegalStateException("Only tree transformers have a class index");
+        }
+        return index;
+    }
+    
+    /**
+     * Points the index at the tree that the next transformers get, null while there is no tree.
+     *
+     * @param classNode The tree
+     * */
+    void setIndexedClass(ClassNode classNode){
+        if(classNode == null){
+            index = null;
+        }else if(index == null || index.getClassNode() != classNode){
+            index = new ClassIndex(classNode);
+        }
+    }
+    
+    void invalidateIndex(){
+        if(index != null){
+            index.invalidate();
+        }
+    }
+    
+    public boolean isModified(){
+        return modifications != 0;
+    }
+    
+    public int getModifications(){
+        return modifications;
+    }
+    
+    public boolean isDirty(String name, String descriptor){
+        return dirtyMethods.contains(name + descriptor);
+    }
+    
+    public int getDirtyMarks(){
+        return dirtyMarks;
+    }
+    
     public int getClassWriterFlags(){
         return (computeFrames ? ClassWriter.COMPUTE_FRAMES : 0) |
                (computeMaxes ? ClassWriter.COMPUTE_MAXS : 0);
@@ -0,0 +1,376 @@
+package net.gudenau.minecraft.asm.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import net.gudenau.minecraft.asm.api.v1.BaseTransformer;
+import net.gudenau.minecraft.asm.api.v1.TransformerTargets;
+import net.gudenau.minecraft.asm.api.v1.type.FieldType;
+import net.gudenau.minecraft.asm.api.v1.type.MethodType;
+import net.gudenau.minecraft.asm.util.ConstantPool;
+
+/**
+ * Finds the transformers for a class without asking every single one of them.
+ *
+ * Exact names live in a hash map, prefixes and the blacklist are compiled into one character trie that gets walked
+ * once per class. Only patterns and transformers without {@link TransformerTargets targets} are checked one by one.
+ *
+ * Transformers that need references are checked last with a single constant pool scan, done only when one of them
+ * matched the name. Late transformers are checked again against the class Mixin produced, see
+ * {@link Match#getTransformers(byte[]) Match.getTransformers}.
+ * */
+public class TransformerIndex{
+    private final List<BaseTransformer> earlyTransformers;
+    private final List<BaseTransformer> lateTransformers;
+    private final Set<String> blacklist;
+    
+    // Early transformers first, then the late ones
+    private final BaseTransformer[] transformers;
+    private final int earlyCount;
+    
+    private final Node root = new Node();
+    private final Map<String, int[]> exact = new HashMap<>();
+    private final int[] patternOwners;
+    private final Pattern[] patterns;
+    private final int[] dynamic;
+    
+    // Transformers that need references and the symbol triples they accept, as indices into symbols
+    private final int[] referencing;
+    private final int[][] references;
+    private final ConstantPool.Utf8Set symbols;
+    private final ThreadLocal<long[]> foundSymbols;
+    
+    TransformerIndex(List<BaseTransformer> earlyTransformers, List<BaseTransformer> lateTransformers, Collection<String> blacklist){
+        this.earlyTransformers = earlyTransformers;
+        this.lateTransformers = lateTransformers;
+        this.blacklist = new HashSet<>(blacklist);
+        
+        List<BaseTransformer> transformers = new ArrayList<>(earlyTransformers);
+        transformers.addAll(lateTransformers);
+        this.transformers = transformers.toArray(new BaseTransformer[0]);
+        earlyCount = earlyTransformers.size();
+        
+        for(String prefix : blacklist){
+            root.getOrCreate(prefix).blacklisted = true;
+        }
+        
+        List<Integer> patternOwners = new ArrayList<>();
+        List<Pattern> patterns = new ArrayList<>();
+        List<Integer> dynamic = new ArrayList<>();
+        List<Integer> referencing = new ArrayList<>();
+        references = new int[this.transformers.length][];
+        Map<String, Integer> symbolIndices = new HashMap<>();
+        List<String> symbols = new ArrayList<>();
+        for(int i = 0; i < this.transformers.length; i++){
+            Optional<TransformerTargets> optionalTargets = this.transformers[i].getTargets();
+            if(!optionalTargets.isPresent()){
+                dynamic.add(i);
+                continue;
+            }
+            
+            TransformerTargets targets = optionalTargets.get();
+            for(String prefix : targets.getPrefixes()){
+                Node node = root.getOrCreate(prefix);
+                node.transformers = append(node.transformers, i);
+            }
+            for(String name : targets.getClasses()){
+                exact.put(name, append(exact.getOrDefault(name, new int[0]), i));
+            }
+            for(Pattern pattern : targets.getPatterns()){
+                patternOwners.add(i);
+                patterns.add(pattern);
+            }
+            
+            if(targets.hasReferences()){
+                referencing.add(i);
+                List<String> triples = new ArrayList<>();
+                for(MethodType method : targets.getMethodReferences()){
+                    triples.add(method.getOwner().getInternalName());
+                    triples.add(method.getName());
+                    triples.add(method.getDescriptor().getDescriptor());
+                }
+                for(FieldType field : targets.getFieldReferences()){
+                    triples.add(field.getOwner().getInternalName());
+                    triples.add(field.getName());
+                    triples.add(field.getDescriptor().getDescriptor());
+                }
+                int[] indices = new int[triples.size()];
+                for(int j = 0; j < indices.length; j++){
+                    indices[j] = symbolIndices.computeIfAbsent(triples.get(j), (symbol)->{
+                        symbols.add(symbol);
+                        return symbols.size() - 1;
+                    });
+                }
+                references[i] = indices;
+            }
+        }
+        this.referencing = referencing.stream().mapToInt(Integer::intValue).toArray();
+        this.symbols = new ConstantPool.Utf8Set(symbols);
+        int words = (symbols.size() + 63) >>> 6;
+        foundSymbols = ThreadLocal.withInitial(()->new long[words]);
+        this.patternOwners = patternOwners.stream().mapToInt(Integer::intValue).toArray();
+        this.patterns = patterns.toArray(new Pattern[0]);
+        this.dynamic = dynamic.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
+    /**
+     * Creates a copy of this index with another blacklisted prefix.
+     *
+     * @param prefix The prefix to blacklist
+     *
+     * @return The new index
+     * */
+    TransformerIndex withBlacklisted(String prefix){
+        Set<String> blacklist = new HashSet<>(this.blacklist);
+        blacklist.add(prefix);
+        return new TransformerIndex(earlyTransformers, lateTransformers, blacklist);
+    }
+    
+    /**
+     * Finds the transformers that handle a class, in registration order.
+     *
+     * @param name The name of the class
+     * @param transformedName The transformed name of the class
+     * @param bytecode The class, used to check references
+     *
+     * @return The result of the lookup
+     * */
+    public Match match(String name, String transformedName, byte[] bytecode){
+        long[] matched = new long[(transformers.length + 63) >>> 6];
+        
+        // One walk checks the blacklist and every prefix
+        Node node = root;
+        int length = name.length();
+        for(int i = 0; node != null; i++){
+            if(node.blacklisted){
+                return Match.BLACKLISTED;
+            }
+            mark(matched, node.transformers);
+            node = i < length ? node.get(name.charAt(i)) : null;
+        }
+        
+        int[] exactMatches = exact.get(name);
+        if(exactMatches != null){
+            mark(matched, exactMatches);
+        }
+        
+        for(int i = 0; i < patterns.length; i++){
+            int owner = patternOwners[i];
+            if(!isMarked(matched, owner) && patterns[i].matcher(name).matches()){
+                mark(matched, owner);
+            }
+        }
+        
+        for(int owner : dynamic){
+            if(transformers[owner].handlesClass(name, transformedName)){
+                mark(matched, owner);
+            }
+        }
+        
+        // Late transformers run after Mixin, which can add the references they look for
+        long[] candidates = matched.clone();
+        filterReferences(matched, bytecode);
+        
+        List<BaseTransformer> early = collect(matched, 0, earlyCount);
+        List<BaseTransformer> late = collect(matched, earlyCount, transformers.length);
+        return new Match(this, bytecode, candidates, early, late);
+    }
+    
+    /**
+     * Finds the late transformers of a class again after it was changed.
+     * */
+    private List<BaseTransformer> matchLate(long[] candidates, byte[] bytecode){
+        long[] matched = candidates.clone();
+        if(bytecode != null){
+            filterReferences(matched, bytecode);
+        }
+        return collect(matched, earlyCount, transformers.length);
+    }
+    
+    private List<BaseTransformer> collect(long[] matched, int start, int end){
+        List<BaseTransformer> result = Collections.emptyList();
+        for(int word = start >>> 6; word < matched.length; word++){
+            long bits = matched[word];
+            while(bits != 0){
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if(index < start){
+                    continue;
+                }
+                if(index >= end){
+                    return result;
+                }
+                if(result.isEmpty()){
+                    result = new ArrayList<>();
+                }
+                result.add(transformers[index]);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Drops the matched transformers whose references don't show up in the constant pool. The pool is only scanned if
+     * one of them matched.
+     * */
+    private void filterReferences(long[] matched, byte[] bytecode){
+        long[] found = null;
+        for(int owner : referencing){
+            if(!isMarked(matched, owner)){
+                continue;
+            }
+            if(bytecode == null){
+                unmark(matched, owner);
+                continue;
+            }
+            
+            if(found == null){
+                found = foundSymbols.get();
+                Arrays.fill(found, 0);
+                if(!ConstantPool.findUtf8(bytecode, symbols, found)){
+                    // Let ASM complain about the class later
+                    Arrays.fill(found, -1L);
+                }
+            }
+            
+            int[] triples = references[owner];
+            boolean referenced = false;
+            for(int i = 0; i < triples.length && !referenced; i += 3){
+                referenced = isMarked(found, triples[i]) && isMarked(found, triples[i + 1]) && isMarked(found, triples[i + 2]);
+            }
+            if(!referenced){
+                unmark(matched, owner);
+            }
+        }
+    }
+    
+    private static void mark(long[] matched, int[] indices){
+        for(int index : indices){
+            mark(matched, index);
+        }
+    }
+    
+    private static void mark(long[] matched, int index){
+        matched[index >>> 6] |= 1L << index;
+    }
+    
+    private static void unmark(long[] matched, int index){
+        matched[index >>> 6] &= ~(1L << index);
+    }
+    
+    private static boolean isMarked(long[] matched, int index){
+        return (matched[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    private static int[] append(int[] array, int value){
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+    
+    /**
+     * The transformers that handle a class.
+     * */
+    public static final class Match{
+        static final Match BLACKLISTED = new Match(null, null, null, Collections.emptyList(), Collections.emptyList());
+        
+        private final TransformerIndex index;
+        private final byte[] bytecode;
+        private final long[] candidates;
+        private final List<BaseTransformer> earlyTransformers;
+        private final List<BaseTransformer> transformers;
+        
+        private Match(TransformerIndex index, byte[] bytecode, long[] candidates, List<BaseTransformer> earlyTransformers, List<BaseTransformer> transformers){
+            this.index = index;
+            this.bytecode = bytecode;
+            this.candidates = candidates;
+            this.earlyTransformers = earlyTransformers;
+            this.transformers = transformers;
+        }
+        
+        public boolean isBlacklisted(){
+            return index == null;
+        }
+        
+        public List<BaseTransformer> getEarlyTransformers(){
+            return earlyTransformers;
+        }
+        
+        /**
+         * Gets the late transformers for the class as it was passed to {@link TransformerIndex#match match}.
+         *
+         * @return The late transformers
+         * */
+        public List<BaseTransformer> getTransformers(){
+            return transformers;
+        }
+        
+        /**
+         * Gets the late transformers for the class as they will see it, references are checked again if it changed.
+         *
+         * @param bytecode The class after Mixin, or null if it changed but only exists as a tree. References are not
+         *                 checked in that case
+         *
+         * @return The late transformers
+         * */
+        public List<BaseTransformer> getTransformers(byte[] bytecode){
+            if(bytecode == this.bytecode || index == null){
+                return transformers;
+            }
+            return index.matchLate(candidates, bytecode);
+        }
+    }
+    
+    private static final class Node{
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        
+        // Sorted so lookups can binary search
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private int[] transformers = new int[0];
+        private boolean blacklisted = false;
+        
+        Node get(char key){
+            int index = Arrays.binarySearch(keys, key);
+            return index < 0 ? null : children[index];
+        }
+        
+        Node getOrCreate(String path){
+            Node node = this;
+            for(int i = 0; i < path.length(); i++){
+                char key = path.charAt(i);
+                int index = Arrays.binarySearch(node.keys, key);
+                if(index < 0){
+                    index = -index - 1;
+                    Node child = new Node();
+                    
+                    char[] keys = new char[node.keys.length + 1];
+                    System.arraycopy(node.keys, 0, keys, 0, index);
+                    keys[index] = key;
+                    System.arraycopy(node.keys, index, keys, index + 1, node.keys.length - index);
+                    
+                    Node[] children = new Node[node.children.length + 1];
+                    System.arraycopy(node.children, 0, children, 0, index);
+                    children[index] = child;
+                    System.arraycopy(node.children, index, children, index + 1, node.children.length - index);
+                    
+                    node.keys = keys;
+                    node.children = children;
+                    node = child;
+                }else{
+                    node = node.children[index];
+                }
+            }
+            return node;
+        }
+    }
+}
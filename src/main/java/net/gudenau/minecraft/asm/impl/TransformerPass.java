@@ -0,0 +1,260 @@
+package net.gudenau.minecraft.asm.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import net.gudenau.minecraft.asm.api.v1.BaseTransformer;
+import net.gudenau.minecraft.asm.api.v1.Transformer;
+import net.gudenau.minecraft.asm.api.v1.VisitorTransformer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Carries a class through transformers, the class is only turned into a tree when a tree transformer needs one.
+ *
+ * Adjacent {@link VisitorTransformer VisitorTransformer}s are chained into one pass. A leading chain runs while the
+ * class is parsed and a trailing chain runs while it is written.
+ *
+ * When every transformer that changed the class marked the methods it touched the untouched methods are copied from
+ * the original bytes instead of being written from the tree.
+ * */
+class TransformerPass{
+    private final TransformerFlagsImpl flags = new TransformerFlagsImpl();
+    private final int readerFlags;
+    
+    // Only one of these is set at a time
+    private byte[] bytecode;
+    private ClassNode classNode;
+    
+    // The original class and its methods, only set once it has been parsed
+    private ClassReader source;
+    private final Set<String> sourceMethods = new HashSet<>();
+    private boolean rewrite = false;
+    private boolean mixed = false;
+    
+    TransformerPass(byte[] bytecode, int readerFlags){
+        this.bytecode = bytecode;
+        this.readerFlags = readerFlags;
+    }
+    
+    TransformerFlagsImpl getFlags(){
+        return flags;
+    }
+    
+    /**
+     * Marks the tree as changed by Mixin. Mixin merges code into the tree without frames or maxes so the whole class
+     * is written with both computed, using Mixin's view of the class hierarchy.
+     * */
+    void markMixed(){
+        flags.requestFrames();
+        flags.requestMaxes();
+        rewrite = true;
+        mixed = true;
+    }
+    
+    /**
+     * Gets the class as a tree, parsing it if needed.
+     *
+     * @return The class
+     * */
+    ClassNode getClassNode(){
+        if(classNode == null){
+            classNode = new ClassNode();
+            read(classNode);
+        }
+        return classNode;
+    }
+    
+    /**
+     * Runs transformers in order.
+     *
+     * @param transformers The transformers to run
+     * @param keepTree True if the class should be left as a tree, false lets a trailing visitor chain write it
+     * */
+    void run(List<BaseTransformer> transformers, boolean keepTree){
+        // Mixin may have changed the tree since the last run without telling anyone
+        flags.invalidateIndex();
+        int size = transformers.size();
+        int start = 0;
+        while(start < size){
+            boolean visitors = transformers.get(start) instanceof VisitorTransformer;
+            int end = start + 1;
+            while(end < size && (transformers.get(end) instanceof VisitorTransformer) == visitors){
+                end++;
+            }
+            
+            if(visitors){
+                int modifications = flags.getModifications();
+                int dirtyMarks = flags.getDirtyMarks();
+                flags.setIndexedClass(null);
+                visit(transformers.subList(start, end), keepTree || end != size);
+                if(flags.getModifications() != modifications && flags.getDirtyMarks() == dirtyMarks){
+                    rewrite = true;
+                }
+            }else{
+                ClassNode classNode = getClassNode();
+                flags.setIndexedClass(classNode);
+                for(BaseTransformer transformer : transformers.subList(start, end)){
+                    int dirtyMarks = flags.getDirtyMarks();
+                    if(((Transformer)transformer).transform(classNode, flags)){
+                        boolean marked = flags.getDirtyMarks() != dirtyMarks;
+                        flags.markTransformed(marked);
+                        if(!marked){
+                            rewrite = true;
+                        }
+                    }
+                }
+            }
+            start = end;
+        }
+    }
+    
+    private void visit(List<BaseTransformer> transformers, boolean intoTree){
+        ClassNode result = null;
+        ClassReader reader = classNode == null && !intoTree ? new ClassReader(bytecode) : null;
+        ClassWriter writer = null;
+        DeferredVisitor tail = null;
+        ClassVisitor visitor;
+        if(intoTree){
+            result = new ClassNode();
+            visitor = result;
+        }else{
+            tail = new DeferredVisitor();
+            visitor = tail;
+        }
+        for(int i = transformers.size() - 1; i >= 0; i--){
+            visitor = ((VisitorTransformer)transformers.get(i)).createVisitor(visitor, flags);
+        }
+        if(!intoTree){
+            // Created last so frame and maxes requests made while the chain was built are honored, straight from the
+            // original bytes ASM copies every method the chain doesn't wrap on its own
+            writer = MixinTransformer.createWriter(reader, flags.getClassWriterFlags(), mixed);
+            tail.setDelegate(writer);
+        }
+        
+        if(classNode != null){
+            classNode.accept(visitor);
+        }else if(intoTree){
+            read(visitor);
+        }else{
+            reader.accept(visitor, readerFlags);
+        }
+        
+        if(intoTree){
+            classNode = result;
+            bytecode = null;
+        }else{
+            classNode = null;
+            bytecode = writer.toByteArray();
+        }
+    }
+    
+    /**
+     * Parses the original bytes, remembering the methods so they can be copied later.
+     * */
+    private void read(ClassVisitor visitor){
+        source = new ClassReader(bytecode);
+        source.accept(new ClassVisitor(Opcodes.ASM8, visitor){
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions){
+                sourceMethods.add(name + descriptor);
+                return super.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+        }, readerFlags);
+        bytecode = null;
+    }
+    
+    /**
+     * Gets the class as bytes, writing it if needed.
+     *
+     * @return The class
+     * */
+    byte[] toByteArray(){
+        if(bytecode == null){
+            if(source == null || rewrite){
+                ClassWriter writer = MixinTransformer.createWriter(null, flags.getClassWriterFlags(), mixed);
+                classNode.accept(writer);
+                bytecode = writer.toByteArray();
+            }else{
+                bytecode = writeCopying();
+            }
+            classNode = null;
+        }
+        return bytecode;
+    }
+    
+    /**
+     * Writes the tree, but copies the methods that were not marked dirty from the original class. Compute flags only
+     * apply to methods that are not copied.
+     * */
+    private byte[] writeCopying(){
+        ClassWriter writer = MixinTransformer.createWriter(source, flags.getClassWriterFlags(), mixed);
+        
+        Map<String, MethodNode> methods = new HashMap<>();
+        for(MethodNode method : classNode.methods){
+            methods.put(method.name + method.desc, method);
+        }
+        
+        classNode.accept(new ClassVisitor(Opcodes.ASM8, writer){
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions){
+                // Copied in visitEnd
+                if(sourceMethods.contains(name + descriptor) && !flags.isDirty(name, descriptor)){
+                    return null;
+                }
+                return super.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+            
+            @Override
+            public void visitEnd(){
+                source.accept(new ClassVisitor(Opcodes.ASM8){
+                    @Override
+                    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions){
+                        MethodNode method = methods.get(name + descriptor);
+                        if(method == null || flags.isDirty(name, descriptor)){
+                            return null;
+                        }
+                        
+                        // Handing the reader the writer's own MethodWriter makes ASM copy the method as is
+                        if(isSameHeader(method, access, signature, exceptions)){
+                            return writer.visitMethod(access, name, descriptor, signature, exceptions);
+                        }
+                        method.accept(writer);
+                        return null;
+                    }
+                }, 0);
+                super.visitEnd();
+            }
+        });
+        return writer.toByteArray();
+    }
+    
+    /**
+     * Forwards to a visitor that is only known after the visitors in front of it were created.
+     * */
+    private static final class DeferredVisitor extends ClassVisitor{
+        DeferredVisitor(){
+            super(Opcodes.ASM8);
+        }
+        
+        void setDelegate(ClassVisitor delegate){
+            cv = delegate;
+        }
+    }
+    
+    private static boolean isSameHeader(MethodNode method, int access, String signature, String[] exceptions){
+        return method.access == access &&
+               Objects.equals(method.signature, signature) &&
+               method.exceptions.equals(exceptions == null ? Collections.emptyList() : Arrays.asList(exceptions));
+    }
+}
@@ -0,0 +1,167 @@
+package net.gudenau.minecraft.asm.impl.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import net.gudenau.minecraft.asm.util.ConstantPool;
+
+/**
+ * Deflates class cache entries with a preset dictionary.
+ *
+ * Classes of one game share most of their constant pools, the same class names, descriptors and method names show up in
+ * thousands of them. A dictionary of the most common constants lets every entry refer to them instead of spelling them
+ * out again, which is where most of the gain over plain deflate comes from for small classes.
+ * */
+final class ClassCompressor{
+    // Deflate can't look back further than this, a longer dictionary would never be referenced
+    static final int DICTIONARY_SIZE = 32 * 1024;
+    // Plenty to find the common constants, the rest of the first run is not worth reading back
+    static final long TRAINING_LIMIT = 32 << 20;
+    
+    private final byte[] dictionary;
+    private final int dictionaryId;
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    
+    /**
+     * Creates a new compressor.
+     *
+     * @param dictionary The preset dictionary
+     * @param level The deflate level, {@link Deflater#NO_COMPRESSION NO_COMPRESSION} only decompresses
+     * */
+    ClassCompressor(byte[] dictionary, int level){
+        this.dictionary = dictionary;
+        this.level = level;
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        dictionaryId = (int)adler.getValue();
+        deflaters = ThreadLocal.withInitial(()->new Deflater(level));
+    }
+    
+    /**
+     * Compresses a class.
+     *
+     * @param raw The class, from its position to its limit
+     *
+     * @return The compressed class or null if compressing it does not save anything
+     * */
+    byte[] compress(ByteBuffer raw){
+        if(level == Deflater.NO_COMPRESSION){
+            return null;
+        }
+        byte[] input = toArray(raw);
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(input);
+        deflater.finish();
+        
+        // Anything that does not fit into the size of the class is not worth it
+        byte[] output = new byte[input.length];
+        int size = 0;
+        while(!deflater.finished()){
+            if(size == output.length){
+                return null;
+            }
+            size += deflater.deflate(output, size, output.length - size);
+        }
+        return Arrays.copyOf(output, size);
+    }
+    
+    /**
+     * Decompresses a class.
+     *
+     * @param compressed The compressed class, from its position to its limit
+     * @param length The length of the class
+     *
+     * @return The class or null if it is damaged or was compressed with another dictionary
+     * */
+    ByteBuffer decompress(ByteBuffer compressed, int length){
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(toArray(compressed));
+        
+        byte[] output = new byte[length];
+        int size = 0;
+        try{
+            while(size < length){
+                int read = inflater.inflate(output, size, length - size);
+                if(read == 0){
+                    if(inflater.needsDictionary() && inflater.getAdler() == dictionaryId){
+                        inflater.setDictionary(dictionary);
+                    }else{
+                        return null;
+                    }
+                }
+                size += read;
+            }
+        }catch(DataFormatException ignored){
+            return null;
+        }
+        return ByteBuffer.wrap(output).asReadOnlyBuffer();
+    }
+    
+    private static byte[] toArray(ByteBuffer buffer){
+        if(buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length){
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Builds a dictionary out of the constants that are shared by the most classes.
+     *
+     * @param classes The classes to train on
+     *
+     * @return The dictionary, empty if the classes have nothing in common
+     * */
+    static byte[] train(List<byte[]> classes){
+        // Constant pools never repeat a constant, so this counts the classes that contain each one
+        Map<ByteBuffer, int[]> counts = new HashMap<>();
+        for(byte[] bytecode : classes){
+            ConstantPool.visitUtf8(bytecode, (data, offset, length)->
+                counts.computeIfAbsent(ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + length)), (key)->new int[1])[0]++
+            );
+        }
+        
+        // Every class after the first one saves the whole constant
+        List<Map.Entry<ByteBuffer, int[]>> constants = new ArrayList<>();
+        for(Map.Entry<ByteBuffer, int[]> entry : counts.entrySet()){
+            if(entry.getValue()[0] > 1){
+                constants.add(entry);
+            }
+        }
+        constants.sort(Comparator.comparingLong((Map.Entry<ByteBuffer, int[]> entry)->
+            (long)(entry.getValue()[0] - 1) * entry.getKey().remaining()
+        ).reversed());
+        
+        List<ByteBuffer> picked = new ArrayList<>();
+        int size = 0;
+        for(Map.Entry<ByteBuffer, int[]> entry : constants){
+            int length = entry.getKey().remaining();
+            if(size + length > DICTIONARY_SIZE){
+                continue;
+            }
+            picked.add(entry.getKey());
+            size += length;
+        }
+        
+        // The best constants go last, closer matches take fewer bits to encode
+        ByteBuffer dictionary = ByteBuffer.allocate(size);
+        for(int i = picked.size() - 1; i >= 0; i--){
+            dictionary.put(picked.get(i).duplicate());
+        }
+        return dictionary.array();
+    }
+}
@@ -0,0 +1,1031 @@
+package net.gudenau.minecraft.asm.impl.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.Deflater;
+import net.gudenau.minecraft.asm.api.v1.ClassHash;
+import net.gudenau.minecraft.asm.api.v1.HashedClassCache;
+import net.gudenau.minecraft.asm.api.v1.Identifier;
+import net.gudenau.minecraft.asm.util.Murmur3;
+
+/**
+ * The built-in class cache.
+ *
+ * Transformed classes get appended to a data segment and are found with an open addressed hash index keyed by a hash of
+ * the original class. Both files are memory mapped, so loading the cache does not read it and a lookup only touches the
+ * pages it needs. Hits are handed out as read only slices of the mapped data segment.
+ *
+ * The cache can be shared by several game instances, even at the same time:
+ * <ul>
+ *     <li>Every fingerprint gets its own data segment, segments are only ever appended to</li>
+ *     <li>Appending and publishing an index happen under an exclusive lock on the segment's lock file</li>
+ *     <li>Indexes are never modified in place, a new generation is written under a temporary name and moved into place
+ *     atomically, so readers never need a lock</li>
+ *     <li>Every running instance holds a shared lock on its segment, segments of other fingerprints are only deleted
+ *     when nobody holds one</li>
+ * </ul>
+ * Since every instance maps the same files the OS only keeps one copy of them in memory.
+ *
+ * Every index remembers the boot it was published in and every entry the last boot it was used in and how often it was
+ * used. Saving drops the entries that were not used for too many boots and the least used ones while the cache is over
+ * its size limit. Dropped entries leave holes in the data segment, once there are enough of them the live entries get
+ * copied into a new data segment in the background. Data segments are numbered by epoch, so running instances keep
+ * their mapping of the old one.
+ *
+ * Entries can be stored deflated with a dictionary of the constants most classes share. The dictionary is built from
+ * the entries of the first run that asks for compression, those get compressed again right away. Every record says if
+ * it is compressed, so the setting can be changed without throwing the cache away.
+ * */
+public class MappedClassCache implements HashedClassCache{
+    private static final Identifier NAME = new Identifier("gud_asm", "mapped");
+    
+    private static final int DATA_MAGIC = 0x47414344; // GACD
+    private static final int INDEX_MAGIC = 0x47414349; // GACI
+    private static final int VERSION = 1;
+    
+    // magic, version, fingerprint high, fingerprint low
+    private static final int DATA_HEADER = 24;
+    // key high, key low, stored length, flags, length
+    private static final int RECORD_HEADER = 28;
+    private static final int FLAG_DEFLATE = 1;
+    // magic, version, count, capacity, data size, epoch, boot
+    private static final int INDEX_HEADER = 32;
+    // key high, key low, offset, length, last used boot, hits, reserved
+    private static final int SLOT_SIZE = 40;
+    
+    // Compact once at least this much and a quarter of the data segment is dead
+    private static final long COMPACT_MIN_WASTE = 1 << 20;
+    private static final int COMPACT_WASTE_DIVISOR = 4;
+    
+    // Regions of the lock file, the file itself stays empty
+    private static final long IN_USE_LOCK = 0;
+    private static final long WRITE_LOCK = 1;
+    
+    private static final String DATA_PREFIX = "classes-";
+    private static final String DATA_SUFFIX = ".dat";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String INDEX_PREFIX = "index-";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String DICTIONARY_PREFIX = "dictionary-";
+    
+    private final Path directory;
+    private final long maxSize;
+    private final int maxAge;
+    private final int compressionLevel;
+    
+    // Entries written this run that are not in the mapped index yet, packed offset and length
+    private final Map<ClassHash, Long> freshEntries = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    
+    private long fingerprintHigh;
+    private long fingerprintLow;
+    private long seed;
+    private String segment;
+    
+    // The data segment new entries are appended to
+    private FileChannel dataChannel;
+    private int dataEpoch;
+    private FileChannel lockChannel;
+    private int generation;
+    private int boot;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    // Hits alone are worth a save, they keep the entries alive
+    private volatile boolean used = false;
+    // Null until there is a dictionary
+    private volatile ClassCompressor compressor;
+    
+    /**
+     * Creates a new cache.
+     *
+     * @param directory The directory to keep the cache in
+     * @param maxSize The size in bytes the cache gets trimmed to when it is saved
+     * @param maxAge The number of boots an entry is kept without being used
+     * @param compressionLevel The deflate level for new entries, {@link Deflater#NO_COMPRESSION NO_COMPRESSION} stores
+     *                         them as they are
+     * */
+    public MappedClassCache(Path directory, long maxSize, int maxAge, int compressionLevel){
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.maxAge = Math.max(1, maxAge);
+        this.compressionLevel = compressionLevel;
+    }
+    
+    @Override
+    public Identifier getName(){
+        return NAME;
+    }
+    
+    @Override
+    public void load() throws IOException{
+        load("");
+    }
+    
+    @Override
+    public void load(String fingerprint) throws IOException{
+        long[] hash = Murmur3.hash128(fingerprint.getBytes(StandardCharsets.UTF_8), 0);
+        fingerprintHigh = hash[0];
+        fingerprintLow = hash[1];
+        seed = ClassHash.seed(fingerprint);
+        segment = String.format("%016x%016x", fingerprintHigh, fingerprintLow);
+        
+        if(!Files.exists(directory)){
+            Files.createDirectories(directory);
+        }
+        
+        // Held until the JVM exits, tells other instances this segment is still needed
+        lockChannel = FileChannel.open(directory.resolve(DATA_PREFIX + segment + LOCK_SUFFIX), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        lockChannel.lock(IN_USE_LOCK, 1, true);
+        
+        try(FileLock ignored = lockWrites()){
+            Snapshot latest = findLatest();
+            if(latest != null){
+                snapshot = latest;
+            }
+            boot = snapshot.boot + 1;
+            openData(snapshot.epoch);
+            compressor = loadDictionary();
+        }
+        deleteIndexes(generation);
+        deleteDataSegments(dataEpoch);
+        deleteStaleSegments();
+        
+        if(shouldCompact(snapshot)){
+            Thread thread = new Thread(()->{
+                try{
+                    compact();
+                }catch(IOException e){
+                    new RuntimeException("Failed to compact class cache", e).printStackTrace();
+                }
+            }, "gudASM Cache Compactor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    @Override
+    public void save() throws IOException{
+        synchronized(writeLock){
+            Snapshot current = snapshot;
+            if(freshEntries.isEmpty() && !used){
+                return;
+            }
+            dataChannel.force(false);
+            
+            Snapshot published;
+            try(FileLock ignored = lockWrites()){
+                // Another instance might have published entries since we looked, build on top of those
+                Snapshot base = current;
+                Snapshot latest = findLatest();
+                if(latest != null && latest.generation > base.generation){
+                    base = latest;
+                }
+                if(base.epoch != dataEpoch){
+                    // Somebody compacted the cache while we were appending to the old data segment
+                    moveFreshEntries(base.epoch);
+                }
+                if(compressor == null && compressionLevel != Deflater.NO_COMPRESSION && !freshEntries.isEmpty()){
+                    trainDictionary();
+                }
+                
+                int publishBoot = Math.max(boot, base.boot);
+                Map<ClassHash, Record> records = base.getRecords();
+                for(Map.Entry<ClassHash, Long> entry : freshEntries.entrySet()){
+                    ClassHash hash = entry.getKey();
+                    long location = entry.getValue();
+                    records.putIfAbsent(hash, new Record(hash.getHigh(), hash.getLow(), location >>> 32, (int)location, publishBoot, 0));
+                }
+                current.addUsage(records, publishBoot);
+                
+                // Nobody is appending while we hold the lock, everything up to here is complete
+                long dataSize = dataChannel.size();
+                published = publish(
+                    evict(records.values(), publishBoot),
+                    dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataSize),
+                    dataEpoch,
+                    publishBoot
+                );
+            }
+            snapshot = published;
+            freshEntries.clear();
+            used = false;
+            deleteIndexes(generation);
+        }
+    }
+    
+    /**
+     * Drops the entries that were not used for too long and trims the rest to the size limit.
+     *
+     * @return The entries to keep, in data segment order
+     * */
+    private List<Record> evict(Collection<Record> records, int currentBoot){
+        List<Record> live = new ArrayList<>(records.size());
+        long size = 0;
+        for(Record record : records){
+            if(currentBoot - record.lastUsed < maxAge){
+                live.add(record);
+                size += RECORD_HEADER + record.length;
+            }
+        }
+        
+        if(size > maxSize){
+            // Recently used first, often used second
+            live.sort(Comparator.<Record>comparingInt((record)->record.lastUsed).thenComparingInt((record)->record.hits).reversed());
+            long kept = 0;
+            int count = 0;
+            while(count < live.size() && kept + RECORD_HEADER + live.get(count).length <= maxSize){
+                kept += RECORD_HEADER + live.get(count).length;
+                count++;
+            }
+            live = new ArrayList<>(live.subList(0, count));
+        }
+        
+        live.sort(Comparator.comparingLong((record)->record.offset));
+        return live;
+    }
+    
+    /**
+     * Copies the live entries into a new data segment so they are packed together again.
+     * */
+    private void compact() throws IOException{
+        synchronized(writeLock){
+            Snapshot compacted;
+            try(FileLock ignored = lockWrites()){
+                Snapshot base = snapshot;
+                Snapshot latest = findLatest();
+                if(latest != null && latest.generation > base.generation){
+                    base = latest;
+                }
+                if(!shouldCompact(base)){
+                    return;
+                }
+                
+                // Keeps the order the entries were written in, which is close to the order they get loaded in
+                List<Record> live = new ArrayList<>(base.getRecords().values());
+                live.sort(Comparator.comparingLong((record)->record.offset));
+                
+                int epoch = base.epoch + 1;
+                ByteBuffer data;
+                try(FileChannel channel = FileChannel.open(getDataPath(epoch), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+                    ByteBuffer header = createDataHeader();
+                    while(header.hasRemaining()){
+                        channel.write(header, header.position());
+                    }
+                    long end = DATA_HEADER;
+                    ClassCompressor compressor = this.compressor;
+                    for(Record record : live){
+                        ByteBuffer bytes = base.data.duplicate();
+                        bytes.limit((int)record.offset + RECORD_HEADER + record.length);
+                        bytes.position((int)record.offset);
+                        bytes = bytes.slice();
+                        // Entries from before there was a dictionary get compressed on the way
+                        if(compressor != null && bytes.getInt(20) == 0){
+                            bytes.position(RECORD_HEADER);
+                            byte[] compressed = compressor.compress(bytes);
+                            bytes.position(0);
+                            if(compressed != null){
+                                bytes = createRecord(new ClassHash(record.high, record.low), ByteBuffer.wrap(compressed), FLAG_DEFLATE, record.length);
+                                record.length = compressed.length;
+                            }
+                        }
+                        while(bytes.hasRemaining()){
+                            channel.write(bytes, end + bytes.position());
+                        }
+                        record.offset = end;
+                        end += RECORD_HEADER + record.length;
+                    }
+                    channel.force(false);
+                    data = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+                }
+                // Entries of this run go after the compacted ones, they get indexed on the next save
+                moveFreshEntries(epoch);
+                compacted = publish(live, data, epoch, base.boot);
+            }
+            // The hits of this run still have to be saved
+            snapshot.addHits(compacted);
+            snapshot = compacted;
+            deleteIndexes(generation);
+            deleteDataSegments(compacted.epoch);
+        }
+    }
+    
+    private static boolean shouldCompact(Snapshot snapshot){
+        if(snapshot.capacity == 0){
+            return false;
+        }
+        long live = DATA_HEADER;
+        for(int slot = 0; slot < snapshot.capacity; slot++){
+            int position = INDEX_HEADER + slot * SLOT_SIZE;
+            if(snapshot.index.getLong(position + 16) != 0){
+                live += RECORD_HEADER + snapshot.index.getInt(position + 24);
+            }
+        }
+        long waste = snapshot.data.capacity() - live;
+        return waste >= COMPACT_MIN_WASTE && waste >= snapshot.data.capacity() / COMPACT_WASTE_DIVISOR;
+    }
+    
+    /**
+     * Opens the data segment of an epoch for appending, has to hold the write lock.
+     * */
+    private void openData(int epoch) throws IOException{
+        FileChannel channel = FileChannel.open(getDataPath(epoch), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        // Only a new or broken segment fails this, no valid index can point into it
+        if(channel.size() > Integer.MAX_VALUE || !checkDataHeader(channel)){
+            channel.truncate(0);
+            ByteBuffer header = createDataHeader();
+            while(header.hasRemaining()){
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        }
+        if(dataChannel != null){
+            dataChannel.close();
+        }
+        dataChannel = channel;
+        dataEpoch = epoch;
+    }
+    
+    /**
+     * Copies the entries of this run to the end of the data segment of another epoch and appends there from now on, has
+     * to hold the write lock.
+     * */
+    private void moveFreshEntries(int epoch) throws IOException{
+        Map<ClassHash, Long> moved = new HashMap<>();
+        try(FileChannel target = FileChannel.open(getDataPath(epoch), StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            long end = target.size();
+            for(Map.Entry<ClassHash, Long> entry : freshEntries.entrySet()){
+                long location = entry.getValue();
+                int length = (int)location;
+                if(end + RECORD_HEADER + length > Integer.MAX_VALUE){
+                    break;
+                }
+                ByteBuffer record = readRecord(location);
+                record.flip();
+                while(record.hasRemaining()){
+                    target.write(record, end + record.position());
+                }
+                moved.put(entry.getKey(), end << 32 | length);
+                end += RECORD_HEADER + length;
+            }
+            target.force(false);
+        }
+        openData(epoch);
+        // Entries that did not fit are dropped, they just get transformed again
+        freshEntries.clear();
+        freshEntries.putAll(moved);
+    }
+    
+    /**
+     * Writes and maps a new index generation, has to hold the write lock.
+     * */
+    private Snapshot publish(List<Record> records, ByteBuffer data, int epoch, int publishBoot) throws IOException{
+        int capacity = getCapacity(records.size());
+        ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER + capacity * SLOT_SIZE);
+        int count = 0;
+        for(Record record : records){
+            if(insert(index, capacity, record)){
+                count++;
+            }
+        }
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, VERSION);
+        index.putInt(8, count);
+        index.putInt(12, capacity);
+        index.putLong(16, data.capacity());
+        index.putInt(24, epoch);
+        index.putInt(28, publishBoot);
+        
+        // Write the new generation under a temporary name so readers never see a partial index
+        int newGeneration = generation + 1;
+        Path temp = directory.resolve(INDEX_PREFIX + segment + "-" + newGeneration + TEMP_SUFFIX);
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+            while(index.hasRemaining()){
+                channel.write(index);
+            }
+            channel.force(false);
+        }
+        Path indexPath = getIndexPath(newGeneration);
+        Files.move(temp, indexPath, StandardCopyOption.ATOMIC_MOVE);
+        
+        ByteBuffer mappedIndex;
+        try(FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)){
+            mappedIndex = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        generation = newGeneration;
+        return new Snapshot(data, mappedIndex, count, capacity, newGeneration, epoch, publishBoot);
+    }
+    
+    @Override
+    public Optional<byte[]> getEntry(byte[] original){
+        return getEntry(ClassHash.of(original, seed)).map((buffer)->{
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        });
+    }
+    
+    @Override
+    public Optional<ByteBuffer> getEntry(ClassHash hash){
+        Snapshot snapshot = this.snapshot;
+        int position = snapshot.find(hash);
+        if(position != -1){
+            ByteBuffer record = snapshot.read(position);
+            ByteBuffer entry = record == null ? null : decode(record);
+            if(entry != null){
+                snapshot.hit(position);
+                if(!used){
+                    used = true;
+                }
+            }
+            return Optional.ofNullable(entry);
+        }
+        
+        Long location = freshEntries.get(hash);
+        if(location != null){
+            return Optional.ofNullable(readFresh(hash, location));
+        }
+        return Optional.empty();
+    }
+    
+    @Override
+    public void putEntry(byte[] original, byte[] modified){
+        putEntry(ClassHash.of(original, seed), ByteBuffer.wrap(modified));
+    }
+    
+    @Override
+    public void putEntry(ClassHash hash, ByteBuffer modified){
+        if(snapshot.find(hash) != -1 || freshEntries.containsKey(hash)){
+            return;
+        }
+        
+        // Done here, on the write behind thread, so class loading never waits for deflate
+        ClassCompressor compressor = this.compressor;
+        byte[] compressed = compressor == null ? null : compressor.compress(modified);
+        ByteBuffer record = compressed == null ?
+            createRecord(hash, modified, 0, modified.remaining()) :
+            createRecord(hash, ByteBuffer.wrap(compressed), FLAG_DEFLATE, modified.remaining());
+        int length = record.remaining() - RECORD_HEADER;
+        
+        synchronized(writeLock){
+            if(freshEntries.containsKey(hash)){
+                return;
+            }
+            long offset;
+            try(FileLock ignored = lockWrites()){
+                // Other instances append to the same segment, the end is wherever the last one left it
+                offset = dataChannel.size();
+                if(offset + record.remaining() > Integer.MAX_VALUE){
+                    // Too big to map, just stop growing
+                    return;
+                }
+                while(record.hasRemaining()){
+                    dataChannel.write(record, offset + record.position());
+                }
+            }catch(IOException e){
+                new RuntimeException("Failed to write class cache entry", e).printStackTrace();
+                return;
+            }
+            freshEntries.put(hash, offset << 32 | length);
+        }
+    }
+    
+    private ByteBuffer readFresh(ClassHash hash, long location){
+        // Not mapped until the next save, these are rare enough to just read
+        ByteBuffer record;
+        try{
+            record = readRecord(location);
+        }catch(IOException e){
+            return null;
+        }
+        // The entry might have moved to another data segment while we were reading
+        if(record.getLong(0) != hash.getHigh() || record.getLong(8) != hash.getLow()){
+            return null;
+        }
+        return decode(record.asReadOnlyBuffer());
+    }
+    
+    private ByteBuffer readRecord(long location) throws IOException{
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + (int)location);
+        readFully(dataChannel, record, location >>> 32);
+        return record;
+    }
+    
+    private static ByteBuffer createRecord(ClassHash hash, ByteBuffer stored, int flags, int length){
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + stored.remaining());
+        record.putLong(hash.getHigh());
+        record.putLong(hash.getLow());
+        record.putInt(stored.remaining());
+        record.putInt(flags);
+        record.putInt(length);
+        record.put(stored.duplicate());
+        record.flip();
+        return record;
+    }
+    
+    /**
+     * Gets the class out of a record.
+     *
+     * @param record The whole record, never modified
+     *
+     * @return The class or null if it can't be read
+     * */
+    private ByteBuffer decode(ByteBuffer record){
+        int flags = record.getInt(20);
+        int length = record.getInt(24);
+        ByteBuffer stored = record.duplicate();
+        stored.position(RECORD_HEADER);
+        if(flags == 0){
+            return stored.slice();
+        }
+        ClassCompressor compressor = this.compressor;
+        if(flags == FLAG_DEFLATE && compressor != null){
+            return compressor.decompress(stored, length);
+        }
+        return null;
+    }
+    
+    /**
+     * Loads the dictionary of this segment.
+     *
+     * @return The compressor for it or null if there is none
+     * */
+    private ClassCompressor loadDictionary() throws IOException{
+        Path path = getDictionaryPath();
+        if(!Files.exists(path)){
+            return null;
+        }
+        byte[] dictionary = Files.readAllBytes(path);
+        if(dictionary.length == 0 || dictionary.length > ClassCompressor.DICTIONARY_SIZE){
+            return null;
+        }
+        return new ClassCompressor(dictionary, compressionLevel);
+    }
+    
+    /**
+     * Builds the dictionary of this segment from the entries of this run and compresses them with it, has to hold the
+     * write lock.
+     * */
+    private void trainDictionary() throws IOException{
+        // Another instance might have beaten us to it
+        compressor = loadDictionary();
+        if(compressor != null){
+            return;
+        }
+        
+        List<byte[]> classes = new ArrayList<>();
+        long size = 0;
+        for(long location : freshEntries.values()){
+            if(size >= ClassCompressor.TRAINING_LIMIT){
+                break;
+            }
+            ByteBuffer entry = decode(readRecord(location));
+            if(entry != null){
+                byte[] bytes = new byte[entry.remaining()];
+                entry.get(bytes);
+                classes.add(bytes);
+                size += bytes.length;
+            }
+        }
+        byte[] dictionary = ClassCompressor.train(classes);
+        if(dictionary.length == 0){
+            return;
+        }
+        
+        Path path = getDictionaryPath();
+        Path temp = directory.resolve(path.getFileName() + TEMP_SUFFIX);
+        Files.write(temp, dictionary);
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        ClassCompressor compressor = new ClassCompressor(dictionary, compressionLevel);
+        this.compressor = compressor;
+        
+        // The uncompressed copies turn into garbage for the compactor
+        long end = dataChannel.size();
+        for(Map.Entry<ClassHash, Long> entry : freshEntries.entrySet()){
+            ByteBuffer record = readRecord(entry.getValue());
+            if(record.getInt(20) != 0){
+                continue;
+            }
+            record.position(RECORD_HEADER);
+            byte[] compressed = compressor.compress(record);
+            if(compressed == null || end + RECORD_HEADER + compressed.length > Integer.MAX_VALUE){
+                continue;
+            }
+            ByteBuffer newRecord = createRecord(entry.getKey(), ByteBuffer.wrap(compressed), FLAG_DEFLATE, record.getInt(24));
+            while(newRecord.hasRemaining()){
+                dataChannel.write(newRecord, end + newRecord.position());
+            }
+            entry.setValue(end << 32 | compressed.length);
+            end += newRecord.limit();
+        }
+        dataChannel.force(false);
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException{
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, offset + buffer.position()) == -1){
+                throw new IOException("Unexpected end of class cache data");
+            }
+        }
+    }
+    
+    /**
+     * Takes the lock writers of this segment share, other instances block until it is released.
+     * */
+    private FileLock lockWrites() throws IOException{
+        return lockChannel.lock(WRITE_LOCK, 1, false);
+    }
+    
+    private ByteBuffer createDataHeader(){
+        ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+        header.putInt(DATA_MAGIC);
+        header.putInt(VERSION);
+        header.putLong(fingerprintHigh);
+        header.putLong(fingerprintLow);
+        header.flip();
+        return header;
+    }
+    
+    private boolean checkDataHeader(FileChannel channel) throws IOException{
+        if(channel.size() < DATA_HEADER){
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+        readFully(channel, header, 0);
+        return checkDataHeader(header);
+    }
+    
+    private boolean checkDataHeader(ByteBuffer header){
+        return header.getInt(0) == DATA_MAGIC &&
+               header.getInt(4) == VERSION &&
+               header.getLong(8) == fingerprintHigh &&
+               header.getLong(16) == fingerprintLow;
+    }
+    
+    /**
+     * Maps the newest index of this segment that is valid, together with its data segment.
+     *
+     * @return The snapshot or null if there is none
+     * */
+    private Snapshot findLatest() throws IOException{
+        List<Integer> generations = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, INDEX_PREFIX + segment + "-*" + INDEX_SUFFIX)){
+            for(Path path : stream){
+                int pathGeneration = getNumber(path);
+                if(pathGeneration > 0){
+                    generations.add(pathGeneration);
+                    // New generations have to go above broken ones as well
+                    generation = Math.max(generation, pathGeneration);
+                }
+            }
+        }
+        generations.sort(Collections.reverseOrder());
+        
+        for(int pathGeneration : generations){
+            ByteBuffer index;
+            try(FileChannel channel = FileChannel.open(getIndexPath(pathGeneration), StandardOpenOption.READ)){
+                index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }catch(NoSuchFileException ignored){
+                // Another instance cleaned it up after publishing a newer one
+                continue;
+            }
+            if(
+                index.capacity() < INDEX_HEADER ||
+                index.getInt(0) != INDEX_MAGIC ||
+                index.getInt(4) != VERSION
+            ){
+                continue;
+            }
+            int count = index.getInt(8);
+            int capacity = index.getInt(12);
+            long dataSize = index.getLong(16);
+            int epoch = index.getInt(24);
+            int indexBoot = index.getInt(28);
+            if(
+                Integer.bitCount(capacity) != 1 ||
+                index.capacity() != INDEX_HEADER + (long)capacity * SLOT_SIZE ||
+                dataSize < DATA_HEADER ||
+                dataSize > Integer.MAX_VALUE
+            ){
+                continue;
+            }
+            
+            ByteBuffer data;
+            try(FileChannel channel = FileChannel.open(getDataPath(epoch), StandardOpenOption.READ)){
+                if(dataSize > channel.size()){
+                    continue;
+                }
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataSize);
+            }catch(NoSuchFileException ignored){
+                continue;
+            }
+            if(!checkDataHeader(data)){
+                continue;
+            }
+            
+            return new Snapshot(data, index, count, capacity, pathGeneration, epoch, indexBoot);
+        }
+        return null;
+    }
+    
+    private Path getIndexPath(int generation){
+        return directory.resolve(INDEX_PREFIX + segment + "-" + generation + INDEX_SUFFIX);
+    }
+    
+    private Path getDataPath(int epoch){
+        return directory.resolve(DATA_PREFIX + segment + "-" + epoch + DATA_SUFFIX);
+    }
+    
+    private Path getDictionaryPath(){
+        return directory.resolve(DICTIONARY_PREFIX + segment + DATA_SUFFIX);
+    }
+    
+    /**
+     * Deletes the index generations of this segment older than the one before keep, an instance that just listed the
+     * directory might still be about to open that one.
+     * */
+    private void deleteIndexes(int keep){
+        deleteOlder(INDEX_PREFIX + segment + "-*", keep);
+    }
+    
+    /**
+     * Deletes the data segments older than the one before keep for the same reason. Instances still appending to an
+     * older one keep it open and move their entries over when they save.
+     * */
+    private void deleteDataSegments(int keep){
+        deleteOlder(DATA_PREFIX + segment + "-*" + DATA_SUFFIX, keep);
+    }
+    
+    private void deleteOlder(String glob, int keep){
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)){
+            for(Path path : stream){
+                int number = getNumber(path);
+                if(number != -1 && number < keep - 1){
+                    try{
+                        Files.deleteIfExists(path);
+                    }catch(IOException ignored){
+                        // Still mapped on some platforms, we will get it next time.
+                    }
+                }
+            }
+        }catch(IOException ignored){}
+    }
+    
+    /**
+     * Deletes the segments of other fingerprints that no running instance uses.
+     * */
+    private void deleteStaleSegments(){
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, DATA_PREFIX + "*" + LOCK_SUFFIX)){
+            for(Path path : stream){
+                String name = path.getFileName().toString();
+                String other = name.substring(DATA_PREFIX.length(), name.length() - LOCK_SUFFIX.length());
+                if(other.equals(segment)){
+                    continue;
+                }
+                try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+                    FileLock lock = channel.tryLock(IN_USE_LOCK, 1, false);
+                    if(lock == null){
+                        continue;
+                    }
+                    // The empty lock file stays, deleting it could leave two instances locking different files
+                    try{
+                        deleteSegment(other);
+                    }finally{
+                        lock.release();
+                    }
+                }catch(IOException | OverlappingFileLockException ignored){}
+            }
+        }catch(IOException ignored){}
+    }
+    
+    private void deleteSegment(String other) throws IOException{
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, INDEX_PREFIX + other + "-*")){
+            for(Path path : stream){
+                Files.deleteIfExists(path);
+            }
+        }
+        // Every epoch
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, DATA_PREFIX + other + "*" + DATA_SUFFIX)){
+            for(Path path : stream){
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(directory.resolve(DICTIONARY_PREFIX + other + DATA_SUFFIX));
+    }
+    
+    /**
+     * Gets the generation of an index or the epoch of a data segment from its name.
+     * */
+    private static int getNumber(Path path){
+        String name = path.getFileName().toString();
+        int start = name.lastIndexOf('-');
+        int end = name.lastIndexOf('.');
+        if(start == -1 || end < start){
+            return -1;
+        }
+        try{
+            return Integer.parseInt(name.substring(start + 1, end));
+        }catch(NumberFormatException ignored){
+            return -1;
+        }
+    }
+    
+    private static int getCapacity(int count){
+        // Keep the load factor under one half so probe chains stay short
+        int capacity = 64;
+        while(capacity < count * 2){
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+    
+    private static boolean insert(ByteBuffer index, int capacity, Record record){
+        int mask = capacity - 1;
+        int slot = (int)record.low & mask;
+        while(true){
+            int position = INDEX_HEADER + slot * SLOT_SIZE;
+            if(index.getLong(position + 16) == 0){
+                index.putLong(position, record.high);
+                index.putLong(position + 8, record.low);
+                index.putLong(position + 16, record.offset);
+                index.putInt(position + 24, record.length);
+                index.putInt(position + 28, record.lastUsed);
+                index.putInt(position + 32, record.hits);
+                return true;
+            }
+            if(index.getLong(position) == record.high && index.getLong(position + 8) == record.low){
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+    
+    /**
+     * An index entry while a new generation is built.
+     * */
+    private static final class Record{
+        final long high;
+        final long low;
+        long offset;
+        int length;
+        int lastUsed;
+        int hits;
+        
+        Record(long high, long low, long offset, int length, int lastUsed, int hits){
+            this.high = high;
+            this.low = low;
+            this.offset = offset;
+            this.length = length;
+            this.lastUsed = lastUsed;
+            this.hits = hits;
+        }
+    }
+    
+    /**
+     * An immutable view of the mapped files and the hits it got this run.
+     * */
+    private static final class Snapshot{
+        static final Snapshot EMPTY = new Snapshot(null, null, 0, 0, 0, 0, 0);
+        
+        final ByteBuffer data;
+        final ByteBuffer index;
+        final int count;
+        final int capacity;
+        final int generation;
+        final int epoch;
+        final int boot;
+        // One counter per slot, so counting a hit never allocates or locks
+        final AtomicIntegerArray hits;
+        
+        Snapshot(ByteBuffer data, ByteBuffer index, int count, int capacity, int generation, int epoch, int boot){
+            this.data = data;
+            this.index = index;
+            this.count = count;
+            this.capacity = capacity;
+            this.generation = generation;
+            this.epoch = epoch;
+            this.boot = boot;
+            hits = new AtomicIntegerArray(capacity);
+        }
+        
+        int find(ClassHash hash){
+            if(capacity == 0){
+                return -1;
+            }
+            long high = hash.getHigh();
+            long low = hash.getLow();
+            int mask = capacity - 1;
+            int slot = (int)low & mask;
+            for(int i = 0; i < capacity; i++){
+                int position = INDEX_HEADER + slot * SLOT_SIZE;
+                if(index.getLong(position + 16) == 0){
+                    return -1;
+                }
+                if(index.getLong(position) == high && index.getLong(position + 8) == low){
+                    return position;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+        
+        ByteBuffer read(int position){
+            long offset = index.getLong(position + 16);
+            int length = index.getInt(position + 24);
+            if(offset < DATA_HEADER || length < 0 || offset + RECORD_HEADER + length > data.capacity()){
+                return null;
+            }
+            // Make sure the record is the one we expect, a torn write should never be handed to the JVM
+            if(
+                data.getLong((int)offset) != index.getLong(position) ||
+                data.getLong((int)offset + 8) != index.getLong(position + 8)
+            ){
+                return null;
+            }
+            // The slice keeps the mapping alive even after a save replaces this snapshot
+            ByteBuffer view = data.asReadOnlyBuffer();
+            view.position((int)offset);
+            view.limit((int)offset + RECORD_HEADER + length);
+            return view.slice();
+        }
+        
+        void hit(int position){
+            hits.incrementAndGet((position - INDEX_HEADER) / SLOT_SIZE);
+        }
+        
+        Map<ClassHash, Record> getRecords(){
+            Map<ClassHash, Record> records = new HashMap<>();
+            for(int slot = 0; slot < capacity; slot++){
+                int position = INDEX_HEADER + slot * SLOT_SIZE;
+                long offset = index.getLong(position + 16);
+                if(offset != 0){
+                    long high = index.getLong(position);
+                    long low = index.getLong(position + 8);
+                    records.put(new ClassHash(high, low), new Record(
+                        high,
+                        low,
+                        offset,
+                        index.getInt(position + 24),
+                        index.getInt(position + 28),
+                        index.getInt(position + 32)
+                    ));
+                }
+            }
+            return records;
+        }
+        
+        /**
+         * Marks the entries that got hits this run as used in a boot.
+         * */
+        void addUsage(Map<ClassHash, Record> records, int boot){
+            for(int slot = 0; slot < capacity; slot++){
+                int count = hits.get(slot);
+                if(count == 0){
+                    continue;
+                }
+                int position = INDEX_HEADER + slot * SLOT_SIZE;
+                Record record = records.get(new ClassHash(index.getLong(position), index.getLong(position + 8)));
+                if(record != null){
+                    record.lastUsed = boot;
+                    record.hits = (int)Math.min(Integer.MAX_VALUE, (long)record.hits + count);
+                }
+            }
+        }
+        
+        /**
+         * Moves the hits of this run over to the snapshot that replaces this one.
+         * */
+        void addHits(Snapshot other){
+            for(int slot = 0; slot < capacity; slot++){
+                int count = hits.get(slot);
+                if(count == 0){
+                    continue;
+                }
+                int position = INDEX_HEADER + slot * SLOT_SIZE;
+                int otherPosition = other.find(new ClassHash(index.getLong(position), index.getLong(position + 8)));
+                if(otherPosition != -1){
+                    other.hits.addAndGet((otherPosition - INDEX_HEADER) / SLOT_SIZE, count);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package net.gudenau.minecraft.asm.impl.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.gudenau.minecraft.asm.api.v1.ClassHash;
+import net.gudenau.minecraft.asm.impl.Fingerprint;
+
+/**
+ * Remembers the classes that came out of the transformers exactly as they went in.
+ *
+ * Those don't need to be stored in the class cache at all, the 128 bit hash of the class is enough to skip parsing it
+ * on the next boot. The file is thrown away when the fingerprint changes.
+ *
+ * The file is a sorted array of hashes that is binary searched, hashes added this run are kept in a set until the next
+ * save. Saving merges with whatever is on disk at the time, so instances sharing a cache directory keep each other's
+ * hashes unless they save at the exact same moment.
+ * */
+public class UnchangedClasses{
+    private static final int MAGIC = 0x47414355; // GACU
+    private static final int VERSION = 1;
+    
+    // magic, version, fingerprint high, fingerprint low
+    private static final int HEADER = 24;
+    
+    private static final Comparator<ClassHash> ORDER = Comparator.comparingLong(ClassHash::getHigh).thenComparingLong(ClassHash::getLow);
+    
+    private final Path path;
+    private final Set<ClassHash> freshKeys = ConcurrentHashMap.newKeySet();
+    
+    private long fingerprintHigh;
+    private long fingerprintLow;
+    
+    // High and low of each key, sorted
+    private volatile LongBuffer keys = LongBuffer.allocate(0);
+    
+    public UnchangedClasses(Path path){
+        this.path = path;
+    }
+    
+    /**
+     * Loads the hashes saved by a previous run, they are ignored if the fingerprint changed.
+     *
+     * @param fingerprint The current fingerprint
+     * */
+    public void load(Fingerprint fingerprint) throws IOException{
+        fingerprintHigh = fingerprint.getHigh();
+        fingerprintLow = fingerprint.getLow();
+        
+        LongBuffer saved = read();
+        if(saved != null){
+            keys = saved;
+        }
+    }
+    
+    /**
+     * Reads the hashes in the file.
+     *
+     * @return The hashes or null if the file is missing or not for this fingerprint
+     * */
+    private LongBuffer read() throws IOException{
+        if(!Files.exists(path)){
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if(
+            buffer.capacity() < HEADER ||
+            (buffer.capacity() - HEADER) % 16 != 0 ||
+            buffer.getInt(0) != MAGIC ||
+            buffer.getInt(4) != VERSION ||
+            buffer.getLong(8) != fingerprintHigh ||
+            buffer.getLong(16) != fingerprintLow
+        ){
+            return null;
+        }
+        buffer.position(HEADER);
+        return buffer.slice().asLongBuffer();
+    }
+    
+    /**
+     * Checks if a class is known to come out of the transformers unchanged.
+     *
+     * @param hash The hash of the original class
+     *
+     * @return True if the class can be used as is
+     * */
+    public boolean contains(ClassHash hash){
+        return find(keys, hash) || freshKeys.contains(hash);
+    }
+    
+    /**
+     * Records a class that came out of the transformers unchanged.
+     *
+     * @param hash The hash of the original class
+     * */
+    public void add(ClassHash hash){
+        if(!find(keys, hash)){
+            freshKeys.add(hash);
+        }
+    }
+    
+    /**
+     * Merges the hashes from this run into the file.
+     * */
+    public synchronized void save() throws IOException{
+        if(freshKeys.isEmpty()){
+            return;
+        }
+        
+        // Another instance might have saved since we loaded
+        LongBuffer oldKeys = read();
+        if(oldKeys == null){
+            oldKeys = keys;
+        }
+        ClassHash[] fresh = freshKeys.toArray(new ClassHash[0]);
+        Arrays.sort(fresh, ORDER);
+        int oldCount = oldKeys.capacity() / 2;
+        
+        // Both sides are sorted, merge them
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + (oldCount + fresh.length) * 16);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(fingerprintHigh);
+        buffer.putLong(fingerprintLow);
+        int oldIndex = 0;
+        int freshIndex = 0;
+        while(oldIndex < oldCount || freshIndex < fresh.length){
+            int result = freshIndex == fresh.length ? -1 : oldIndex == oldCount ? 1 : compare(oldKeys.get(oldIndex * 2), oldKeys.get(oldIndex * 2 + 1), fresh[freshIndex]);
+            if(result <= 0){
+                buffer.putLong(oldKeys.get(oldIndex * 2));
+                buffer.putLong(oldKeys.get(oldIndex * 2 + 1));
+                oldIndex++;
+                if(result == 0){
+                    freshIndex++;
+                }
+            }else{
+                buffer.putLong(fresh[freshIndex].getHigh());
+                buffer.putLong(fresh[freshIndex].getLow());
+                freshIndex++;
+            }
+        }
+        buffer.flip();
+        
+        // Unique so instances sharing the directory don't write into each other's file
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        buffer.position(HEADER);
+        keys = buffer.slice().asLongBuffer();
+        freshKeys.removeAll(Arrays.asList(fresh));
+    }
+    
+    private static boolean find(LongBuffer keys, ClassHash hash){
+        int low = 0;
+        int high = keys.capacity() / 2 - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            int result = compare(keys.get(middle * 2), keys.get(middle * 2 + 1), hash);
+            if(result < 0){
+                low = middle + 1;
+            }else if(result > 0){
+                high = middle - 1;
+            }else{
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static int compare(long high, long low, ClassHash hash){
+        int result = Long.compare(high, hash.getHigh());
+        return result != 0 ? result : Long.compare(low, hash.getLow());
+    }
+}
@@ -0,0 +1,237 @@
+package net.gudenau.minecraft.asm.impl.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import net.gudenau.minecraft.asm.api.v1.ClassCache;
+import net.gudenau.minecraft.asm.api.v1.ClassHash;
+import net.gudenau.minecraft.asm.api.v1.HashedClassCache;
+import net.gudenau.minecraft.asm.api.v1.Identifier;
+
+/**
+ * Keeps the writes of a {@link ClassCache ClassCache} off the class loading threads.
+ *
+ * New entries are queued in memory and handed to the real cache in batches by a background thread, which also saves
+ * the cache every now and then. Queued entries are served from memory until they are written, an entry that is put
+ * twice is only written once.
+ *
+ * Queued entries are keyed by the hash of the original class. Plain caches get the original bytes back when the entry
+ * is written, {@link #wrap(ClassCache) wrap} keeps the hashes of a {@link HashedClassCache HashedClassCache} all the
+ * way through.
+ * */
+public class WriteBehindClassCache implements ClassCache{
+    private static final int BATCH_SIZE = 256;
+    private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final long SAVE_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+    
+    private final ClassCache cache;
+    private final Map<ClassHash, Pending> pending = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    
+    private volatile Thread flusher;
+    long seed = ClassHash.seed("");
+    // Guarded by flushLock
+    private boolean dirty = false;
+    
+    public WriteBehindClassCache(ClassCache cache){
+        this.cache = cache;
+    }
+    
+    /**
+     * Puts a cache behind a write queue, hashed caches stay hashed.
+     *
+     * @param cache The cache to wrap
+     *
+     * @return The wrapped cache
+     * */
+    public static ClassCache wrap(ClassCache cache){
+        return cache instanceof HashedClassCache ? new Hashed((HashedClassCache)cache) : new WriteBehindClassCache(cache);
+    }
+    
+    @Override
+    public Identifier getName(){
+        return cache.getName();
+    }
+    
+    @Override
+    public void load() throws IOException{
+        cache.load();
+        start();
+    }
+    
+    @Override
+    public void load(String fingerprint) throws IOException{
+        cache.load(fingerprint);
+        seed = ClassHash.seed(fingerprint);
+        start();
+    }
+    
+    private void start(){
+        Thread thread = new Thread(this::run, "gudASM Cache Writer");
+        thread.setDaemon(true);
+        flusher = thread;
+        thread.start();
+    }
+    
+    private void run(){
+        long lastSave = System.nanoTime();
+        while(true){
+            LockSupport.parkNanos(this, FLUSH_INTERVAL);
+            synchronized(flushLock){
+                flush();
+                if(dirty && System.nanoTime() - lastSave >= SAVE_INTERVAL){
+                    try{
+                        cache.save();
+                        dirty = false;
+                    }catch(IOException e){
+                        new RuntimeException("Failed to save class cache " + cache.getName(), e).printStackTrace();
+                    }
+                    lastSave = System.nanoTime();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Hands every queued entry to the real cache, has to hold flushLock.
+     * */
+    private void flush(){
+        Iterator<Map.Entry<ClassHash, Pending>> iterator = pending.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<ClassHash, Pending> entry = iterator.next();
+            // Removed after the write so lookups always find the entry in one of the two places
+            write(entry.getKey(), entry.getValue());
+            iterator.remove();
+            dirty = true;
+        }
+    }
+    
+    /**
+     * Writes a single queued entry to the real cache.
+     *
+     * @param hash The hash of the original class
+     * @param entry The entry
+     * */
+    void write(ClassHash hash, Pending entry){
+        cache.putEntry(entry.original, toArray(entry.modified.duplicate()));
+    }
+    
+    /**
+     * Writes everything that is queued and saves the real cache.
+     * */
+    @Override
+    public void save() throws IOException{
+        synchronized(flushLock){
+            flush();
+            cache.save();
+            dirty = false;
+        }
+    }
+    
+    @Override
+    public Optional<byte[]> getEntry(byte[] original){
+        if(!pending.isEmpty()){
+            Pending entry = pending.get(ClassHash.of(original, seed));
+            if(entry != null){
+                return Optional.of(toArray(entry.modified.duplicate()));
+            }
+        }
+        return cache.getEntry(original);
+    }
+    
+    @Override
+    public void putEntry(byte[] original, byte[] modified){
+        queue(ClassHash.of(original, seed), new Pending(original, ByteBuffer.wrap(modified)));
+    }
+    
+    /**
+     * Gets a queued entry.
+     *
+     * @param hash The hash of the original class
+     *
+     * @return The entry or null if it is not queued
+     * */
+    Pending getPending(ClassHash hash){
+        return pending.isEmpty() ? null : pending.get(hash);
+    }
+    
+    void queue(ClassHash hash, Pending entry){
+        pending.putIfAbsent(hash, entry);
+        
+        Thread flusher = this.flusher;
+        if(flusher == null){
+            // Not loaded yet, nothing will write this for us
+            synchronized(flushLock){
+                flush();
+            }
+        }else if(pending.size() >= BATCH_SIZE){
+            LockSupport.unpark(flusher);
+        }
+    }
+    
+    static byte[] toArray(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+    
+    /**
+     * An entry that was not written yet.
+     * */
+    static final class Pending{
+        // Only kept for plain caches, they are keyed by it
+        final byte[] original;
+        final ByteBuffer modified;
+        
+        Pending(byte[] original, ByteBuffer modified){
+            this.original = original;
+            this.modified = modified;
+        }
+    }
+    
+    /**
+     * The write queue for caches that take our hashes, the original classes are never kept.
+     * */
+    private static final class Hashed extends WriteBehindClassCache implements HashedClassCache{
+        private final HashedClassCache cache;
+        
+        Hashed(HashedClassCache cache){
+            super(cache);
+            this.cache = cache;
+        }
+        
+        @Override
+        void write(ClassHash hash, Pending entry){
+            cache.putEntry(hash, entry.modified.duplicate());
+        }
+        
+        @Override
+        public Optional<byte[]> getEntry(byte[] original){
+            return getEntry(ClassHash.of(original, seed)).map(WriteBehindClassCache::toArray);
+        }
+        
+        @Override
+        public Optional<ByteBuffer> getEntry(ClassHash hash){
+            Pending entry = getPending(hash);
+            if(entry != null){
+                return Optional.of(entry.modified.asReadOnlyBuffer());
+            }
+            return cache.getEntry(hash);
+        }
+        
+        @Override
+        public void putEntry(byte[] original, byte[] modified){
+            putEntry(ClassHash.of(original, seed), ByteBuffer.wrap(modified));
+        }
+        
+        @Override
+        public void putEntry(ClassHash hash, ByteBuffer modified){
+            queue(hash, new Pending(null, modified));
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package net.gudenau.minecraft.asm.util;
 
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import net.gudenau.minecraft.asm.api.v1.FieldMatcher;
+import net.gudenau.minecraft.asm.api.v1.MethodMatcher;
 import net.gudenau.minecraft.asm.api.v1.functional.BooleanFunction;
 import net.gudenau.minecraft.asm.api.v1.type.FieldType;
 import net.gudenau.minecraft.asm.api.v1.type.MethodType;
@@ -20,15 +20,13 @@ import static org.objectweb.asm.Opcodes.*;
 
 @SuppressWarnings("DuplicatedCode")
 public class AsmUtilsImpl{
-    private static final IntSet METHOD_OPCODES = new IntOpenHashSet(new int[]{
-        INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE
-    });
-    private static final IntSet RETURN_OPCODES = new IntOpenHashSet(new int[]{
-        IRETURN, LRETURN, FRETURN, DRETURN, ARETURN, RETURN
-    });
-    private static final IntSet FIELD_OPCODES = new IntOpenHashSet(new int[]{
-        GETFIELD, PUTFIELD, GETSTATIC, PUTSTATIC
-    });
+    // Labels, lines and frames have an opcode of -1, & 0xFF folds that into the unused last slot
+    private static final boolean[] RETURN_OPCODES = new boolean[256];
+    static{
+        for(int opcode : new int[]{IRETURN, LRETURN, FRETURN, DRETURN, ARETURN, RETURN}){
+            RETURN_OPCODES[opcode] = true;
+        }
+    }
     
     private AsmUtilsImpl(){}
     
@@ -119,16 +117,24 @@ public class AsmUtilsImpl{
         return removeAnnotations(visibleAnnotations, invisibleAnnotations, getAnnotations(visibleAnnotations, invisibleAnnotations, type));
     }
 
-    @SuppressWarnings("unchecked")
-    
     public static @NotNull <T extends AbstractInsnNode> List<T> findMatchingNodes(@NotNull InsnList instructions, @NotNull BooleanFunction<AbstractInsnNode> checker){
         List<T> result = new ArrayList<>();
-        for(AbstractInsnNode instruction : instructions){
+        findMatchingNodes(instructions, checker, result);
+        return result;
+    }
+    
+    @SuppressWarnings("unchecked")
+    
+    public static <T extends AbstractInsnNode> int findMatchingNodes(@NotNull InsnList instructions, @NotNull BooleanFunction<AbstractInsnNode> checker, @NotNull Collection<? super T> result){
+        // Walks the links directly, the iterator of an InsnList is an allocation per search
+        int count = 0;
+        for(AbstractInsnNode instruction = instructions.getFirst(); instruction != null; instruction = instruction.getNext()){
             if(checker.apply(instruction)){
                 result.add((T)instruction);
+                count++;
             }
         }
-        return result;
+        return count;
     }
 
     @SuppressWarnings("unchecked")
@@ -159,326 +165,19 @@ public class AsmUtilsImpl{
         return Optional.empty();
     }
     
-    private static boolean checkFlag(int flag, int flags){
-        return (flags & flag) != 0;
-    }
-    
-    // This is kinda nasty, but could be worse
-    private static BooleanFunction<AbstractInsnNode> getMethodChecker(int flags, int opcode, @NotNull MethodType type){
-        boolean ignoreOpcode = checkFlag(METHOD_FLAG_IGNORE_OPCODE, flags) || opcode == -1;
-        boolean ignoreOwner = checkFlag(METHOD_FLAG_IGNORE_OWNER, flags);
-        boolean ignoreName = checkFlag(METHOD_FLAG_IGNORE_NAME, flags);
-        boolean ignoreDesc = checkFlag(METHOD_FLAG_IGNORE_DESCRIPTION, flags);
-        
-        String owner = type.getOwner().getInternalName();
-        String name = type.getName();
-        String description = type.getDescriptor().getDescriptor();
-        
-        if(ignoreOpcode){
-            if(ignoreOwner){
-                if(ignoreName){
-                    if(ignoreDesc){
-                        return (node)->METHOD_OPCODES.contains(node.getOpcode());
-                    }else{
-                        return (node)->
-                            METHOD_OPCODES.contains(node.getOpcode()) &&
-                            description.equals(((MethodInsnNode)node).desc);
-                    }
-                }else{
-                    if(ignoreDesc){
-                        return (node)->
-                            METHOD_OPCODES.contains(node.getOpcode()) &&
-                            name.equals(((MethodInsnNode)node).name);
-                    }else{
-                        return (node)->{
-                            if(METHOD_OPCODES.contains(node.getOpcode())){
-                                MethodInsnNode method = (MethodInsnNode)node;
-                                return name.equals(method.name) &&
-                                       description.equals(method.desc);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }
-            }else{
-                if(ignoreName){
-                    if(ignoreDesc){
-                        return (node)->
-                            METHOD_OPCODES.contains(node.getOpcode()) &&
-                            owner.equals(((MethodInsnNode)node).owner);
-                    }else{
-                        return (node)->{
-                            if(METHOD_OPCODES.contains(node.getOpcode())){
-                                MethodInsnNode method = (MethodInsnNode)node;
-                                return description.equals(method.desc) &&
-                                       owner.equals(method.owner);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }else{
-                    if(ignoreDesc){
-                        return (node)->{
-                            if(METHOD_OPCODES.contains(node.getOpcode())){
-                                MethodInsnNode method = (MethodInsnNode)node;
-                                return name.equals(method.name) &&
-                                       owner.equals(method.owner);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }else{
-                        return (node)->{
-                            if(METHOD_OPCODES.contains(node.getOpcode())){
-                                MethodInsnNode method = (MethodInsnNode)node;
-                                return name.equals(method.name) &&
-                                       owner.equals(method.owner) &&
-                                       description.equals(method.desc);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }
-            }
-        }else{
-            if(ignoreOwner){
-                if(ignoreName){
-                    if(ignoreDesc){
-                        return (node)->opcode == node.getOpcode();
-                    }else{
-                        return (node)->
-                            opcode == node.getOpcode() &&
-                            description.equals(((MethodInsnNode)node).desc);
-                    }
-                }else{
-                    if(ignoreDesc){
-                        return (node)->
-                            opcode == node.getOpcode() &&
-                            name.equals(((MethodInsnNode)node).name);
-                    }else{
-                        return (node)->{
-                            if(opcode == node.getOpcode()){
-                                MethodInsnNode method = (MethodInsnNode)node;
-                                return name.equals(method.name) &&
-                                       description.equals(method.desc);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }
-            }else{
-                if(ignoreName){
-                    if(ignoreDesc){
-                        return (node)->
-                            opcode == node.getOpcode() &&
-                            owner.equals(((MethodInsnNode)node).owner);
-                    }else{
-                        return (node)->{
-                            if(opcode == node.getOpcode()){
-                                MethodInsnNode method = (MethodInsnNode)node;
-                                return description.equals(method.desc) &&
-                                       owner.equals(method.owner);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }else{
-                    if(ignoreDesc){
-                        return (node)->{
-                            if(opcode == node.getOpcode()){
-                                MethodInsnNode method = (MethodInsnNode)node;
-                                return name.equals(method.name) &&
-                                       owner.equals(method.owner);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }else{
-                        return (node)->{
-                            if(opcode == node.getOpcode()){
-                                MethodInsnNode method = (MethodInsnNode)node;
-                                return name.equals(method.name) &&
-                                       owner.equals(method.owner) &&
-                                       description.equals(method.desc);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }
-            }
-        }
-    }
-    
-    private static BooleanFunction<AbstractInsnNode> getFieldChecker(int flags, int opcode, @NotNull FieldType type){
-        boolean ignoreOpcode = checkFlag(FIELD_FLAG_IGNORE_OPCODE, flags) || opcode == -1;
-        boolean ignoreOwner = checkFlag(FIELD_FLAG_IGNORE_OWNER, flags);
-        boolean ignoreName = checkFlag(FIELD_FLAG_IGNORE_NAME, flags);
-        boolean ignoreDesc = checkFlag(FIELD_FLAG_IGNORE_DESCRIPTION, flags);
-        
-        String owner = type.getOwner().getInternalName();
-        String name = type.getName();
-        String description = type.getDescriptor().getDescriptor();
-        
-        if(ignoreOpcode){
-            if(ignoreOwner){
-                if(ignoreName){
-                    if(ignoreDesc){
-                        return (node)->FIELD_OPCODES.contains(node.getOpcode());
-                    }else{
-                        return (node)->
-                            FIELD_OPCODES.contains(node.getOpcode()) &&
-                            description.equals(((FieldInsnNode)node).desc);
-                    }
-                }else{
-                    if(ignoreDesc){
-                        return (node)->
-                            FIELD_OPCODES.contains(node.getOpcode()) &&
-                            name.equals(((FieldInsnNode)node).name);
-                    }else{
-                        return (node)->{
-                            if(FIELD_OPCODES.contains(node.getOpcode())){
-                                FieldInsnNode field = (FieldInsnNode)node;
-                                return name.equals(field.name) &&
-                                       description.equals(field.desc);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }
-            }else{
-                if(ignoreName){
-                    if(ignoreDesc){
-                        return (node)->
-                            FIELD_OPCODES.contains(node.getOpcode()) &&
-                            owner.equals(((FieldInsnNode)node).owner);
-                    }else{
-                        return (node)->{
-                            if(FIELD_OPCODES.contains(node.getOpcode())){
-                                FieldInsnNode field = (FieldInsnNode)node;
-                                return description.equals(field.desc) &&
-                                       owner.equals(field.owner);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }else{
-                    if(ignoreDesc){
-                        return (node)->{
-                            if(FIELD_OPCODES.contains(node.getOpcode())){
-                                FieldInsnNode field = (FieldInsnNode)node;
-                                return name.equals(field.name) &&
-                                       owner.equals(field.owner);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }else{
-                        return (node)->{
-                            if(FIELD_OPCODES.contains(node.getOpcode())){
-                                FieldInsnNode field = (FieldInsnNode)node;
-                                return name.equals(field.name) &&
-                                       owner.equals(field.owner) &&
-                                       description.equals(field.desc);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }
-            }
-        }else{
-            if(ignoreOwner){
-                if(ignoreName){
-                    if(ignoreDesc){
-                        return (node)->opcode == node.getOpcode();
-                    }else{
-                        return (node)->
-                            opcode == node.getOpcode() &&
-                            description.equals(((FieldInsnNode)node).desc);
-                    }
-                }else{
-                    if(ignoreDesc){
-                        return (node)->
-                            opcode == node.getOpcode() &&
-                            name.equals(((FieldInsnNode)node).name);
-                    }else{
-                        return (node)->{
-                            if(opcode == node.getOpcode()){
-                                FieldInsnNode field = (FieldInsnNode)node;
-                                return name.equals(field.name) &&
-                                       description.equals(field.desc);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }
-            }else{
-                if(ignoreName){
-                    if(ignoreDesc){
-                        return (node)->
-                            opcode == node.getOpcode() &&
-                            owner.equals(((FieldInsnNode)node).owner);
-                    }else{
-                        return (node)->{
-                            if(opcode == node.getOpcode()){
-                                FieldInsnNode field = (FieldInsnNode)node;
-                                return description.equals(field.desc) &&
-                                       owner.equals(field.owner);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }else{
-                    if(ignoreDesc){
-                        return (node)->{
-                            if(opcode == node.getOpcode()){
-                                FieldInsnNode field = (FieldInsnNode)node;
-                                return name.equals(field.name) &&
-                                       owner.equals(field.owner);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }else{
-                        return (node)->{
-                            if(opcode == node.getOpcode()){
-                                FieldInsnNode field = (FieldInsnNode)node;
-                                return name.equals(field.name) &&
-                                       owner.equals(field.owner) &&
-                                       description.equals(field.desc);
-                            }else{
-                                return false;
-                            }
-                        };
-                    }
-                }
-            }
-        }
-    }
-
     
     public static @NotNull List<@NotNull MethodInsnNode> findMethodCalls(@NotNull InsnList instructions, int flags, int opcode, @NotNull MethodType method){
-        return findMatchingNodes(instructions, getMethodChecker(flags, opcode, method));
+        return findMatchingNodes(instructions, new MethodMatcher(flags, opcode, method));
     }
 
     
     public static @NotNull Optional<MethodInsnNode> findNextMethodCall(@NotNull AbstractInsnNode node, int flags, int opcode, @NotNull MethodType method, int limit){
-        return findNextNode(node, getMethodChecker(flags, opcode, method), limit);
+        return findNextNode(node, new MethodMatcher(flags, opcode, method), limit);
     }
 
     
     public static @NotNull Optional<MethodInsnNode> findPreviousMethodCall(@NotNull AbstractInsnNode node, int flags, int opcode, @NotNull MethodType method, int limit){
-        return findPreviousNode(node, getMethodChecker(flags, opcode, method), limit);
+        return findPreviousNode(node, new MethodMatcher(flags, opcode, method), limit);
     }
 
     
@@ -507,7 +206,7 @@ public class AsmUtilsImpl{
 
     
     public static @NotNull List<InsnNode> findReturns(@NotNull InsnList instructions){
-        return findMatchingNodes(instructions, (node)->RETURN_OPCODES.contains(node.getOpcode()));
+        return findMatchingNodes(instructions, (node)->RETURN_OPCODES[node.getOpcode() & 0xFF]);
     }
     
     
@@ -523,17 +222,17 @@ public class AsmUtilsImpl{
     
     
     public static @NotNull List<@NotNull FieldInsnNode> findFieldNodes(@NotNull InsnList instructions, int flags, int opcode, @NotNull FieldType field){
-        return findMatchingNodes(instructions, getFieldChecker(flags, opcode, field));
+        return findMatchingNodes(instructions, new FieldMatcher(flags, opcode, field));
     }
     
     
     public static @NotNull Optional<FieldInsnNode> findNextFieldNode(@NotNull AbstractInsnNode node, int flags, int opcode, @NotNull FieldType field, int limit){
-        return findNextNode(node, getFieldChecker(flags, opcode, field), limit);
+        return findNextNode(node, new FieldMatcher(flags, opcode, field), limit);
     }
     
     
     public static @NotNull Optional<FieldInsnNode> findPreviousFieldNode(@NotNull AbstractInsnNode node, int flags, int opcode, @NotNull FieldType field, int limit){
-        return findPreviousNode(node, getFieldChecker(flags, opcode, field), limit);
+        return findPreviousNode(node, new FieldMatcher(flags, opcode, field), limit);
     }
 
     
@@ -0,0 +1,310 @@
+package net.gudenau.minecraft.asm.util;
+
+import java.util.List;
+
+/**
+ * Raw constant pool scanning, for questions that don't need a ClassReader.
+ *
+ * Nothing here allocates, the class bytes are walked in place.
+ * */
+public final class ConstantPool{
+    // Tags from the JVM spec, section 4.4
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int FLOAT = 4;
+    private static final int LONG = 5;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int INTERFACE_METHOD_REF = 11;
+    private static final int NAME_AND_TYPE = 12;
+    private static final int METHOD_HANDLE = 15;
+    private static final int METHOD_TYPE = 16;
+    private static final int DYNAMIC = 17;
+    private static final int INVOKE_DYNAMIC = 18;
+    private static final int MODULE = 19;
+    private static final int PACKAGE = 20;
+    
+    private ConstantPool(){}
+    
+    /**
+     * Encodes a string the way the constant pool stores it, modified UTF-8 as described in section 4.4.7 of the JVM
+     * spec.
+     *
+     * Null chars take two bytes and supplementary characters are encoded as two surrogates of three bytes each, so
+     * this differs from the UTF-8 charset for anything outside of ASCII.
+     *
+     * @param value The string to encode
+     *
+     * @return The encoded string
+     * */
+    public static byte[] utf8(String value){
+        int length = value.length();
+        int size = 0;
+        for(int i = 0; i < length; i++){
+            char c = value.charAt(i);
+            if(c >= 0x0001 && c <= 0x007F){
+                size++;
+            }else if(c <= 0x07FF){
+                size += 2;
+            }else{
+                size += 3;
+            }
+        }
+        
+        byte[] bytes = new byte[size];
+        int offset = 0;
+        for(int i = 0; i < length; i++){
+            char c = value.charAt(i);
+            if(c >= 0x0001 && c <= 0x007F){
+                bytes[offset++] = (byte)c;
+            }else if(c <= 0x07FF){
+                bytes[offset++] = (byte)(0xC0 | (c >> 6));
+                bytes[offset++] = (byte)(0x80 | (c & 0x3F));
+            }else{
+                bytes[offset++] = (byte)(0xE0 | (c >> 12));
+                bytes[offset++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                bytes[offset++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * Checks if a class has a Utf8 constant in one pass over the constant pool.
+     *
+     * @param bytecode The class file
+     * @param value The encoded constant, see {@link #utf8(String)}
+     *
+     * @return True if the constant is present, false if it is not or the class is malformed
+     * */
+    public static boolean containsUtf8(byte[] bytecode, byte[] value){
+        try{
+            int count = readUnsignedShort(bytecode, 8);
+            int offset = 10;
+            for(int i = 1; i < count; i++){
+                int tag = bytecode[offset];
+                if(tag == UTF8){
+                    int length = readUnsignedShort(bytecode, offset + 1);
+                    if(length == value.length && regionMatches(bytecode, offset + 3, value)){
+                        return true;
+                    }
+                }else if(tag == LONG || tag == DOUBLE){
+                    i++;
+                }
+                offset = next(bytecode, offset, tag);
+                if(offset == -1){
+                    return false;
+                }
+            }
+            return false;
+        }catch(ArrayIndexOutOfBoundsException ignored){
+            return false;
+        }
+    }
+    
+    /**
+     * Finds all the Utf8 constants of a set in one pass over the constant pool.
+     *
+     * @param bytecode The class file
+     * @param set The constants to look for
+     * @param found A bit set with at least {@link Utf8Set#size()} bits, the index of every found constant gets set
+     *
+     * @return False if the class is malformed, the bit set is incomplete in that case
+     * */
+    public static boolean findUtf8(byte[] bytecode, Utf8Set set, long[] found){
+        try{
+            int count = readUnsignedShort(bytecode, 8);
+            int offset = 10;
+            for(int i = 1; i < count; i++){
+                int tag = bytecode[offset];
+                if(tag == UTF8){
+                    int index = set.indexOf(bytecode, offset + 3, readUnsignedShort(bytecode, offset + 1));
+                    if(index != -1){
+                        found[index >>> 6] |= 1L << index;
+                    }
+                }else if(tag == LONG || tag == DOUBLE){
+                    i++;
+                }
+                offset = next(bytecode, offset, tag);
+                if(offset == -1){
+                    return false;
+                }
+            }
+            return true;
+        }catch(ArrayIndexOutOfBoundsException ignored){
+            return false;
+        }
+    }
+    
+    /**
+     * Visits every Utf8 constant of a class in one pass over the constant pool.
+     *
+     * @param bytecode The class file
+     * @param visitor The visitor to pass the constants to
+     *
+     * @return False if the class is malformed, only part of the constants were visited in that case
+     * */
+    public static boolean visitUtf8(byte[] bytecode, Utf8Visitor visitor){
+        try{
+            int count = readUnsignedShort(bytecode, 8);
+            int offset = 10;
+            for(int i = 1; i < count; i++){
+                int tag = bytecode[offset];
+                if(tag == UTF8){
+                    int length = readUnsignedShort(bytecode, offset + 1);
+                    if(offset + 3 + length > bytecode.length){
+                        return false;
+                    }
+                    visitor.visit(bytecode, offset, length + 3);
+                }else if(tag == LONG || tag == DOUBLE){
+                    i++;
+                }
+                offset = next(bytecode, offset, tag);
+                if(offset == -1){
+                    return false;
+                }
+            }
+            return true;
+        }catch(ArrayIndexOutOfBoundsException ignored){
+            return false;
+        }
+    }
+    
+    /**
+     * Gets the offset of the constant after the one at offset.
+     *
+     * @return The offset of the next constant or -1 for unknown tags
+     * */
+    private static int next(byte[] bytecode, int offset, int tag){
+        switch(tag){
+            case UTF8:
+                return offset + 3 + readUnsignedShort(bytecode, offset + 1);
+            
+            case CLASS:
+            case STRING:
+            case METHOD_TYPE:
+            case MODULE:
+            case PACKAGE:
+                return offset + 3;
+            
+            case METHOD_HANDLE:
+                return offset + 4;
+            
+            case INTEGER:
+            case FLOAT:
+            case FIELD_REF:
+            case METHOD_REF:
+            case INTERFACE_METHOD_REF:
+            case NAME_AND_TYPE:
+            case DYNAMIC:
+            case INVOKE_DYNAMIC:
+                return offset + 5;
+            
+            // These take two slots, the caller has to skip the second one
+            case LONG:
+            case DOUBLE:
+                return offset + 9;
+            
+            default:
+                return -1;
+        }
+    }
+    
+    private static boolean regionMatches(byte[] bytecode, int offset, byte[] value){
+        for(int i = 0; i < value.length; i++){
+            if(bytecode[offset + i] != value[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int readUnsignedShort(byte[] bytecode, int offset){
+        return ((bytecode[offset] & 0xFF) << 8) | (bytecode[offset + 1] & 0xFF);
+    }
+    
+    private static int hash(byte[] data, int offset, int length){
+        int hash = length;
+        for(int i = 0; i < length; i++){
+            hash = hash * 31 + data[offset + i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+    
+    /**
+     * Gets passed the Utf8 constants of a class.
+     * */
+    @FunctionalInterface
+    public interface Utf8Visitor{
+        /**
+         * Visits a constant.
+         *
+         * @param bytecode The class file
+         * @param offset The offset of the constant, starting with its tag
+         * @param length The length of the constant including its tag and length
+         * */
+        void visit(byte[] bytecode, int offset, int length);
+    }
+    
+    /**
+     * A fixed set of Utf8 constants that can be looked up straight from class bytes.
+     * */
+    public static final class Utf8Set{
+        private final byte[][] values;
+        // Open addressing, holds the index of a value plus one so zero means empty
+        private final int[] table;
+        private final int mask;
+        
+        /**
+         * Creates a new set.
+         *
+         * @param values The strings in the set
+         * */
+        public Utf8Set(List<String> values){
+            this.values = new byte[values.size()][];
+            int capacity = Integer.highestOneBit(Math.max(values.size(), 4) * 2 - 1) << 1;
+            table = new int[capacity];
+            mask = capacity - 1;
+            for(int i = 0; i < this.values.length; i++){
+                byte[] value = utf8(values.get(i));
+                this.values[i] = value;
+                int slot = hash(value, 0, value.length) & mask;
+                while(table[slot] != 0){
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i + 1;
+            }
+        }
+        
+        /**
+         * Gets the amount of values in this set.
+         *
+         * @return The amount of values
+         * */
+        public int size(){
+            return values.length;
+        }
+        
+        /**
+         * Finds the index of a value in this set.
+         *
+         * @param data The buffer holding the value
+         * @param offset The offset of the value
+         * @param length The length of the value
+         *
+         * @return The index of the value or -1 if it is not in this set
+         * */
+        public int indexOf(byte[] data, int offset, int length){
+            for(int slot = hash(data, offset, length) & mask; table[slot] != 0; slot = (slot + 1) & mask){
+                byte[] value = values[table[slot] - 1];
+                if(value.length == length && regionMatches(data, offset, value)){
+                    return table[slot] - 1;
+                }
+            }
+            return -1;
+        }
+    }
+}
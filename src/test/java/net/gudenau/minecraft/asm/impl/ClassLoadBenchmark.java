@@ -0,0 +1,145 @@
+package net.gudenau.minecraft.asm.impl;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures the seen class check at the start of {@link MixinTransformer#transformClassBytes
+ * MixinTransformer.transformClassBytes} while every core loads classes at once.
+ *
+ * The read write lock around a HashSet the check used to take is measured next to the concurrent set that replaced it.
+ * Every thread goes through the same class names starting at a different one, so most names are asked for by several
+ * threads at the same time like during a parallel startup. Both have to let exactly one thread handle each class.
+ *
+ * Run it with <pre>./gradlew benchmarkClassLoading</pre> or with the test classpath:
+ * <pre>java -cp ... net.gudenau.minecraft.asm.impl.ClassLoadBenchmark [threads] [classes] [rounds]</pre>
+ * */
+public class ClassLoadBenchmark{
+    private static final int HANDLED = 0;
+    private static final int SEEN = 1;
+    private static final int RACED = 2;
+    
+    public static void main(String[] args) throws Exception{
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int classes = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        
+        String[] names = new String[classes];
+        for(int i = 0; i < classes; i++){
+            names[i] = "net.minecraft.class_" + i;
+        }
+        
+        System.out.printf("%d threads, %d classes, %d rounds%n", threads, classes, rounds);
+        for(int round = 1; round <= rounds; round++){
+            // The first rounds are mostly the JIT warming up
+            long locked = run(threads, names, new LockedCheck());
+            long concurrent = run(threads, names, new ConcurrentCheck());
+            System.out.printf(
+                "Round %d: locked %dms, concurrent %dms, %.2fx%n",
+                round, locked / 1000000, concurrent / 1000000, (double)locked / concurrent
+            );
+        }
+    }
+    
+    /**
+     * Runs one check on all threads.
+     *
+     * @return The time it took in nanoseconds
+     * */
+    private static long run(int threadCount, String[] names, SeenCheck check) throws Exception{
+        int[][] results = new int[threadCount][3];
+        CyclicBarrier barrier = new CyclicBarrier(threadCount + 1);
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            int offset = (int)((long)names.length * i / threadCount);
+            int[] counts = results[i];
+            threads[i] = new Thread(()->{
+                try{
+                    barrier.await();
+                    for(int j = 0; j < names.length; j++){
+                        counts[check.check(names[(offset + j) % names.length])]++;
+                    }
+                    barrier.await();
+                }catch(Exception e){
+                    failures.incrementAndGet();
+                    e.printStackTrace();
+                }
+            }, "Class Loader " + i);
+            threads[i].start();
+        }
+        
+        barrier.await();
+        long start = System.nanoTime();
+        barrier.await();
+        long time = System.nanoTime() - start;
+        for(Thread thread : threads){
+            thread.join();
+        }
+        
+        int handled = 0;
+        for(int[] counts : results){
+            handled += counts[HANDLED];
+        }
+        if(failures.get() != 0 || handled != names.length){
+            throw new IllegalStateException(check.getClass().getSimpleName() + " handled " + handled + " of " + names.length + " classes");
+        }
+        return time;
+    }
+    
+    private interface SeenCheck{
+        int check(String name);
+    }
+    
+    /**
+     * What the check looked like with the old Locker.
+     * */
+    private static final class LockedCheck implements SeenCheck{
+        private final Set<String> seenClasses = new HashSet<>();
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Lock readLock = lock.readLock();
+        private final Lock writeLock = lock.writeLock();
+        
+        @Override
+        public int check(String name){
+            readLock.lock();
+            try{
+                if(seenClasses.contains(name)){
+                    return SEEN;
+                }
+            }finally{
+                readLock.unlock();
+            }
+            writeLock.lock();
+            try{
+                if(seenClasses.contains(name)){
+                    return RACED;
+                }
+                seenClasses.add(name);
+                return HANDLED;
+            }finally{
+                writeLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * The check MixinTransformer does now.
+     * */
+    private static final class ConcurrentCheck implements SeenCheck{
+        private final Set<String> seenClasses = ConcurrentHashMap.newKeySet();
+        
+        @Override
+        public int check(String name){
+            if(seenClasses.contains(name)){
+                return SEEN;
+            }
+            return seenClasses.add(name) ? HANDLED : RACED;
+        }
+    }
+}